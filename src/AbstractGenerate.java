@@ -6,21 +6,30 @@
  * @Author: Roger Garside, John Mariani
  **/
 
+import java.io.IOException;
+
 public abstract class AbstractGenerate {
 
+    /**
+     * The sink that trace lines are written to.
+     **/
+
+    TraceSink sink = new PrintStreamSink(System.out);
+
     /**
      * insertTerminal
      **/
 
     public void insertTerminal(Token token) {
-        String tt = Token.getName(token.symbol);
-
-        if ((token.symbol == Token.identifier) || (token.symbol == Token.numberConstant) || (token.symbol == Token.stringConstant))
-            tt += " '" + token.text + "'";
+        sink.terminal(token.symbol, token.text, token.lineNumber);
+    } // end of method insertTerminal
 
-        tt += " on line " + token.lineNumber;
+    /**
+     * insertTerminal, for a token held in a TokenStream
+     **/
 
-        System.out.println("rggTOKEN " + tt);
+    public void insertTerminal(TokenStream tokens, int i) {
+        sink.terminal(tokens.symbol(i), tokens.text(), tokens.start(i), tokens.length(i), tokens.line(i));
     } // end of method insertTerminal
 
     /**
@@ -28,7 +37,7 @@ public abstract class AbstractGenerate {
      **/
 
     public void commenceNonterminal(String name) {
-        System.out.println("rggBEGIN " + name);
+        sink.commenceNonterminal(name);
     } // end of method commenceNonterminal
 
     /**
@@ -36,7 +45,7 @@ public abstract class AbstractGenerate {
      **/
 
     public void finishNonterminal(String name) {
-        System.out.println("rggEND " + name);
+        sink.finishNonterminal(name);
     } // end of method finishNonterminal
 
     /**
@@ -44,13 +53,30 @@ public abstract class AbstractGenerate {
      **/
 
     public void reportSuccess() {
-        System.out.println("rggSUCCESS");
+        sink.success();
     } // end of method reportSuccess
 
+    /**
+     * Writes out anything the trace sink is still holding.
+     **/
+
+    public void flush() throws IOException {
+        sink.flush();
+    } // end of method flush
+
 
     /**
      * Report an error to the user.
      */
     public abstract void reportError(Token token, String explanatoryMessage) throws CompilationException;
 
+    /**
+     * Report an error to the user, already made by the syntax analyser with its message
+     * formatted only when asked for. Unless overridden, the message is reported as by
+     * reportError(Token, String).
+     */
+    public void reportError(Token token, CompilationException error) throws CompilationException {
+        reportError(token, error.getMessage());
+    } // end of method reportError
+
 } // end of class "AbstractGenerate"
@@ -7,14 +7,115 @@
  **/
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public abstract class AbstractSyntaxAnalyser {
-    /** The lexical analyser to process input using. */
-    LexicalAnalyser lex;
+    /** The lexical analyser, or other source of tokens, to process input using. */
+    TokenSource lex;
     /** A cache of the token to be processed next. */
     Token nextToken;
     /** A code generator, descendant of AbstractGenerate. */
-    Generate myGenerate = null;
+    AbstractGenerate myGenerate = null;
+    /** The tokens read so far when parsing in token-stream mode, otherwise null.
+     In this mode nextToken is a cursor into the stream and its text is not filled in. */
+    TokenStream tokens = null;
+    /** The index in tokens of nextToken. */
+    int tokenIndex;
+    /** The number of tokens moved past so far. */
+    long tokensRead;
+    /** The syntax errors recovered from so far, when error recovery is on, otherwise null. */
+    List<CompilationException> diagnostics = null;
+    /** The most errors to report from one parse when error recovery is on. */
+    int maxErrors;
+    /** The value of tokensRead when error recovery last resynchronised. */
+    long lastRecovery;
+    /** The profiler to count each parse in, or null not to profile. */
+    ParseProfiler profiler = null;
+    /** The syntax error that stopped the last parse, or null if it reached the end. */
+    CompilationException failure = null;
+
+    /** Makes this analyser ready to parse another program, read from the given source of tokens.
+     Everything grown to parse earlier programs, such as its stacks, is kept, so that one
+     analyser can parse file after file without being made again.
+
+     @param lex The lexical analyser, or other source of tokens, to read the program with.
+     */
+    public void reset(TokenSource lex) {
+        this.lex = lex;
+        nextToken = null;
+        tokenIndex = 0;
+    } // end of method reset
+
+    /** Parses in token-stream mode, reading tokens into the given (reusable) stream
+     instead of creating a Token object for each.
+
+     @param tokens The TokenStream to read tokens into, or null to leave token-stream mode.
+     */
+    public void setTokenStream(TokenStream tokens) {
+        this.tokens = tokens;
+    } // end of method setTokenStream
+
+    /** Turns on error recovery, so that a parse goes on past syntax errors to report up to
+     maxErrors of them, or turns it off again.
+
+     @param maxErrors The most errors to report from one parse, or 0 to stop at the first error.
+     */
+    public void setRecovery(int maxErrors) {
+        this.maxErrors = maxErrors;
+        if (maxErrors <= 1)
+            diagnostics = null;
+        else if (diagnostics == null)
+            diagnostics = new ArrayList<>();
+    } // end of method setRecovery
+
+    /** Turns on profiling, so that the time taken by each nonterminal and each kind of token
+     is added to a profiler's counts, or turns it off again.
+
+     @param profiler The profiler to count parses in, or null to stop profiling.
+     */
+    public void setProfiler(ParseProfiler profiler) {
+        this.profiler = profiler;
+    } // end of method setProfiler
+
+    /** Returns the syntax errors recovered from in the last parse.
+
+     @return the errors, in the order they were found.
+     */
+    public List<CompilationException> getDiagnostics() {
+        return (diagnostics == null) ? new ArrayList<>() : diagnostics;
+    } // end of method getDiagnostics
+
+    /** Returns the syntax error that stopped the last parse, not counting any recovered from.
+
+     @return the error, or null if the parse reached the end of the program.
+     */
+    public CompilationException getFailure() {
+        return failure;
+    } // end of method getFailure
+
+    /** Moves nextToken on to the next token of the input.
+
+     @throws IOException in the event that the input can no longer be read.
+     */
+    void advance() throws IOException {
+        tokensRead++;
+        if (tokens == null) {
+            nextToken = lex.getNextToken();
+        } else {
+            if (tokenIndex + 1 == tokens.size())
+                lex.getNextToken(tokens);
+            tokens.load(++tokenIndex, nextToken);
+        }
+    } // end of method advance
+
+    /** Returns nextToken with its text, materialising it in token-stream mode.
+
+     @return the token to be processed next.
+     */
+    Token currentToken() {
+        return (tokens == null) ? nextToken : tokens.getToken(tokenIndex);
+    } // end of method currentToken
 
     /** Begin processing the first (top level) token.*/
     public abstract void _statementPart_() throws IOException, CompilationException;
@@ -28,15 +129,106 @@ public abstract class AbstractSyntaxAnalyser {
      @throws IOException in the event that the PrintStream object can no longer read.
      */
     public void parse(PrintStream ps) throws IOException {
-        myGenerate = new Generate();
+        parse(ps, System.out);
+    } // end of method parse
+
+    /** Parses with this instance's LexicalAnalyser, writing the trace to a given stream.
+
+     @param ps The PrintStream object to report compilation errors to.
+     @param trace The PrintStream object the generated trace is written to.
+     @throws IOException in the event that the PrintStream object can no longer read.
+     */
+    public void parse(PrintStream ps, PrintStream trace) throws IOException {
+        parse(ps, new PrintStreamSink(trace));
+    } // end of method parse
+
+    /** Parses with this instance's LexicalAnalyser, writing the trace to a given sink.
+     The sink is flushed, but not closed, once parsing is over.
+
+     @param ps The PrintStream object to report compilation errors to.
+     @param trace The TraceSink the generated trace is written to.
+     @throws IOException in the event that the PrintStream object can no longer read.
+     */
+    public void parse(PrintStream ps, TraceSink trace) throws IOException {
+        Generate generate = new Generate();
+        generate.sink = trace;
+        parse(ps, generate);
+    } // end of method parse
+
+    /** Parses with this instance's LexicalAnalyser, handing the events of the parse to a given
+     code generator, such as an AstBuilder, rather than to a Generate writing a trace.
+     The generator is flushed once parsing is over.
+
+     @param ps The PrintStream object to report compilation errors to.
+     @param generate The code generator to hand the events to.
+     @throws IOException in the event that the PrintStream object can no longer read.
+     */
+    public void parse(PrintStream ps, AbstractGenerate generate) throws IOException {
+        myGenerate = (profiler == null) ? generate : profiler.wrap(generate);
+        tokensRead = 0;
+        lastRecovery = -1;
+        failure = null;
+        if (diagnostics != null)
+            diagnostics.clear();
         try {
-            nextToken = lex.getNextToken();
+            if (tokens == null) {
+                nextToken = lex.getNextToken();
+            } else {
+                tokens.clear();
+                lex.getNextToken(tokens);
+                tokenIndex = 0;
+                nextToken = tokens.getToken(0);
+            }
             _statementPart_();
             acceptTerminal(Token.eofSymbol);
-            myGenerate.reportSuccess();
+            if (diagnostics == null || diagnostics.isEmpty())
+                myGenerate.reportSuccess();
+            else
+                reportDiagnostics(ps);
         } catch (CompilationException ex) {
+            failure = ex;
+            reportDiagnostics(ps);
             ps.println("Compilation Exception");
             ps.println(ex.toTraceString());
+        } finally {
+            myGenerate.flush();
         }
     } // end of method parse
+
+    /** Parses with this instance's LexicalAnalyser only to find out whether the program is valid.
+     No events of the grammar are handed on, so nothing is written but compilation errors.
+
+     @param ps The PrintStream object to report compilation errors to.
+     @return true if the program parsed without syntax errors.
+     @throws IOException in the event that the PrintStream object can no longer read.
+     */
+    public boolean validate(PrintStream ps) throws IOException {
+        return validate(ps, new NullSink());
+    } // end of method validate
+
+    /** Parses with this instance's LexicalAnalyser only to find out whether the program is valid.
+     The trace gets the success or error lines of a full parse, but no terminals or nonterminals.
+
+     @param ps The PrintStream object to report compilation errors to.
+     @param trace The TraceSink success and error messages are written to.
+     @return true if the program parsed without syntax errors.
+     @throws IOException in the event that the PrintStream object can no longer read.
+     */
+    public boolean validate(PrintStream ps, TraceSink trace) throws IOException {
+        parse(ps, new ValidatingGenerate(trace));
+        return (failure == null) && (diagnostics == null || diagnostics.isEmpty());
+    } // end of method validate
+
+    /** Reports each syntax error recovered from, in the same form as an error that stops the parse.
+
+     @param ps The PrintStream object to report compilation errors to.
+     */
+    private void reportDiagnostics(PrintStream ps) {
+        if (diagnostics == null)
+            return;
+        for (CompilationException ex : diagnostics) {
+            ps.println("Compilation Exception");
+            ps.println(ex.toTraceString());
+        }
+    } // end of method reportDiagnostics
 } // end of class AbstractSyntaxAnalyser
@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * A code generator that builds the syntax tree of a parse instead of writing a trace.
+ * <p>
+ * The tree lives in an arena of int arrays rather than an object per node. Nodes are numbered in
+ * the order they are started, so the root is node 0 and the descendants of a node are the nodes
+ * after it up to its end. Its first child, if it has any, is the next node, and each child's end
+ * is the next child. A node is four ints side by side: its kind, its end, its parent and a token
+ * index, its own token for a terminal and the first token it covers for a nonterminal. The arena
+ * grows a fixed size page at a time, so a large tree is never copied, and clear() keeps the pages
+ * for the next tree.
+ * <p>
+ * Kinds are numbered as symbols are in Grammar: terminals by their Token constants, and
+ * nonterminals from Grammar.terminalCount() up in the order they are first seen.
+ * <p>
+ * Token indices are into the TokenStream the parser read, in token-stream mode, or otherwise
+ * into a stream of the builder's own that the accepted tokens are copied into.
+ * <p>
+ * Nothing is written to the trace sink. When error recovery skips over the end of nonterminals,
+ * they are ended with the nonterminal around them, and whatever is left open when the parse
+ * stops is ended by flush().
+ */
+public class AstBuilder extends AbstractGenerate {
+
+    private static final int NONTERMINALS = Grammar.terminalCount();
+
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+    /* The fields of a node, at these offsets from its start in a page */
+    private static final int KIND = 0;
+    private static final int END = 1;
+    private static final int PARENT = 2;
+    private static final int TOKEN = 3;
+    private static final int FIELDS = 4;
+
+    private int[][] pages = new int[16][];
+    private int pageCount;
+    private int size;
+
+    /* The nonterminals started but not yet finished, innermost last */
+    private int[] open = new int[64];
+    private int depth;
+
+    private String[] names = new String[32];
+    private int nameCount;
+
+    private final TokenStream ownTokens = new TokenStream();
+    private TokenStream tokens = ownTokens;
+    private int nextToken;
+    private boolean complete;
+
+    /**
+     * Empties the tree, keeping the arena for the next one.
+     */
+    public void clear() {
+        size = 0;
+        depth = 0;
+        ownTokens.clear();
+        tokens = ownTokens;
+        nextToken = 0;
+        complete = false;
+    }
+
+    private int addNode(int k, int t) {
+        int p = size >>> PAGE_BITS;
+        if (p == pageCount) {
+            if (p == pages.length)
+                pages = Arrays.copyOf(pages, p * 2);
+            pages[p] = new int[FIELDS << PAGE_BITS];
+            pageCount++;
+        }
+        int[] page = pages[p];
+        int i = (size & PAGE_MASK) * FIELDS;
+        page[i + KIND] = k;
+        page[i + END] = size + 1;
+        page[i + PARENT] = (depth == 0) ? -1 : open[depth - 1];
+        page[i + TOKEN] = t;
+        return size++;
+    }
+
+    private int field(int node, int f) {
+        return pages[node >>> PAGE_BITS][(node & PAGE_MASK) * FIELDS + f];
+    }
+
+    /**
+     * Ends an open nonterminal node after the last node so far.
+     */
+    private void close(int node) {
+        pages[node >>> PAGE_BITS][(node & PAGE_MASK) * FIELDS + END] = size;
+    }
+
+    /**
+     * @return The kind of a nonterminal, given its name
+     */
+    private int kindOf(String name) {
+        // The parsers pass the same String constants every time, so compare references first
+        for (int i = 0; i < nameCount; i++)
+            if (names[i] == name)
+                return NONTERMINALS + i;
+        for (int i = 0; i < nameCount; i++)
+            if (names[i].equals(name))
+                return NONTERMINALS + i;
+        if (nameCount == names.length)
+            names = Arrays.copyOf(names, nameCount * 2);
+        names[nameCount] = name;
+        return NONTERMINALS + nameCount++;
+    }
+
+    @Override
+    public void insertTerminal(Token t) {
+        tokens = ownTokens;
+        ownTokens.add(t);
+        addNode(t.symbol, ownTokens.size() - 1);
+        nextToken = ownTokens.size();
+    }
+
+    @Override
+    public void insertTerminal(TokenStream stream, int i) {
+        tokens = stream;
+        addNode(stream.symbol(i), i);
+        nextToken = i + 1;
+    }
+
+    @Override
+    public void commenceNonterminal(String name) {
+        int node = addNode(kindOf(name), nextToken);
+        if (depth == open.length)
+            open = Arrays.copyOf(open, depth * 2);
+        open[depth++] = node;
+    }
+
+    @Override
+    public void finishNonterminal(String name) {
+        int k = kindOf(name);
+        // Nonterminals an error was recovered from inside were never finished; end them here too
+        while (depth > 0) {
+            int node = open[--depth];
+            close(node);
+            if (field(node, KIND) == k)
+                break;
+        }
+    }
+
+    @Override
+    public void reportSuccess() {
+        complete = true;
+    }
+
+    /**
+     * Ends whatever nonterminals an error left open.
+     */
+    @Override
+    public void flush() {
+        while (depth > 0)
+            close(open[--depth]);
+    }
+
+    @Override
+    public void reportError(Token token, String explanatoryMessage) throws CompilationException {
+        throw new CompilationException(explanatoryMessage, false);
+    }
+
+    @Override
+    public void reportError(Token token, CompilationException error) throws CompilationException {
+        throw error;
+    }
+
+    /**
+     * @return true if the parse the tree was built from succeeded
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return The number of nodes in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    public int kind(int node) {
+        return field(node, KIND);
+    }
+
+    public boolean isTerminal(int node) {
+        return field(node, KIND) < NONTERMINALS;
+    }
+
+    /**
+     * @return The name of a nonterminal node, or of the symbol of a terminal one
+     */
+    public String name(int node) {
+        int k = field(node, KIND);
+        return (k < NONTERMINALS) ? Token.getName(k) : names[k - NONTERMINALS];
+    }
+
+    /**
+     * @return The node after the last descendant of a node
+     */
+    public int end(int node) {
+        return field(node, END);
+    }
+
+    /**
+     * @return The parent of a node, or -1 for the root
+     */
+    public int parent(int node) {
+        return field(node, PARENT);
+    }
+
+    /**
+     * @return The first child of a node, or -1 if it has none
+     */
+    public int firstChild(int node) {
+        return (field(node, END) > node + 1) ? node + 1 : -1;
+    }
+
+    /**
+     * @return The next child of the same parent, or -1 if this is the last
+     */
+    public int nextSibling(int node) {
+        int p = field(node, PARENT);
+        int next = field(node, END);
+        return (p >= 0 && next < field(p, END)) ? next : -1;
+    }
+
+    /**
+     * @return For a terminal the index of its token, and for a nonterminal the index of the first
+     * token it covers, in tokens()
+     */
+    public int token(int node) {
+        return field(node, TOKEN);
+    }
+
+    /**
+     * @return The stream the tokens of the tree are in
+     */
+    public TokenStream tokens() {
+        return tokens;
+    }
+
+    /**
+     * @return The bytes the arrays of the arena take up now, not counting the tokens
+     */
+    public long arenaBytes() {
+        return 4L * (((long) pageCount * FIELDS << PAGE_BITS) + pages.length + open.length);
+    }
+
+    /**
+     * Walks the tree, giving a sink the events it was built from.
+     *
+     * @param sink The sink to write to
+     */
+    public void replay(TraceSink sink) {
+        int[] stack = new int[64];
+        int top = 0;
+        for (int node = 0; node < size; node++) {
+            while (top > 0 && field(stack[top - 1], END) <= node)
+                sink.finishNonterminal(name(stack[--top]));
+            if (isTerminal(node)) {
+                int t = field(node, TOKEN);
+                sink.terminal(tokens.symbol(t), tokens.text(), tokens.start(t), tokens.length(t), tokens.line(t));
+            } else {
+                sink.commenceNonterminal(name(node));
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = node;
+            }
+        }
+        while (top > 0)
+            sink.finishNonterminal(name(stack[--top]));
+        if (complete)
+            sink.success();
+    }
+
+    /**
+     * Usage: AstBuilder file [-print]
+     * <p>
+     * Builds the tree of a program in token-stream mode and reports its size, the time taken and
+     * the garbage collections that happened meanwhile. With -print the trace is replayed from
+     * the tree to standard output.
+     */
+    public static void main(String[] args) throws IOException {
+        AstBuilder tree = new AstBuilder();
+        TokenStream stream = new TokenStream();
+        long collections = 0, collectionTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections -= gc.getCollectionCount();
+            collectionTime -= gc.getCollectionTime();
+        }
+        long start = System.nanoTime();
+
+        SyntaxAnalyser syn = new SyntaxAnalyser(args[0]);
+        syn.setTokenStream(stream);
+        syn.parse(System.err, tree);
+
+        long elapsed = System.nanoTime() - start;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += gc.getCollectionCount();
+            collectionTime += gc.getCollectionTime();
+        }
+        if (args.length > 1 && args[1].equals("-print")) {
+            PrintStreamSink sink = new PrintStreamSink(new PrintStream(System.out));
+            tree.replay(sink);
+            sink.flush();
+        }
+        System.err.printf("%s: %d nodes, %d tokens, %s, arena %.1f MB, %.0f ms, %d collections taking %d ms%n",
+                args[0], tree.size(), stream.size(), tree.isComplete() ? "complete" : "incomplete",
+                tree.arenaBytes() / 1e6, elapsed / 1e6, collections, collectionTime);
+    }
+
+}
@@ -0,0 +1,165 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Reads a binary trace written by BinaryTraceSink and replays its events into another TraceSink,
+ * streaming through the input with a fixed-size buffer.
+ */
+public class BinaryTraceDecoder {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+    private byte[] scratch = new byte[256];
+
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<String> strings = new ArrayList<>();
+
+    /**
+     * @param channel The channel to read the binary trace from
+     */
+    public BinaryTraceDecoder(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer.limit(0);
+    }
+
+    /**
+     * Replays every event of the trace into a sink.
+     *
+     * @param sink The sink to replay into
+     * @throws IOException if the trace cannot be read or is malformed
+     */
+    public void replay(TraceSink sink) throws IOException {
+        int lastLine = 0;
+        int opcode;
+        while ((opcode = read()) >= 0) {
+            if (opcode >= BinaryTraceSink.TOKEN) {
+                int symbol = opcode & ~BinaryTraceSink.TOKEN;
+                int zigzag = readVarint();
+                lastLine += (zigzag >>> 1) ^ -(zigzag & 1);
+                String text = "";
+                if (TraceSink.showsText(symbol))
+                    text = (symbol == Token.stringConstant) ? readString() : readRef(strings);
+                sink.terminal(symbol, text, lastLine);
+                continue;
+            }
+
+            switch (opcode) {
+                case BinaryTraceSink.HEADER:
+                    for (byte b : BinaryTraceSink.MAGIC)
+                        if (readRequired() != b)
+                            throw new IOException("not a binary trace");
+                    if (readRequired() != BinaryTraceSink.VERSION)
+                        throw new IOException("unsupported binary trace version");
+                    names.clear();
+                    strings.clear();
+                    lastLine = 0;
+                    break;
+                case BinaryTraceSink.BEGIN:
+                    sink.commenceNonterminal(readRef(names));
+                    break;
+                case BinaryTraceSink.END:
+                    sink.finishNonterminal(readRef(names));
+                    break;
+                case BinaryTraceSink.SUCCESS:
+                    sink.success();
+                    break;
+                case BinaryTraceSink.MESSAGE:
+                    sink.message(readString());
+                    break;
+                default:
+                    throw new IOException("bad opcode " + opcode + " in binary trace");
+            }
+        }
+    }
+
+    private String readRef(ArrayList<String> table) throws IOException {
+        int ref = readVarint();
+        if (ref > 0) {
+            if (ref > table.size())
+                throw new IOException("bad table reference in binary trace");
+            return table.get(ref - 1);
+        }
+        String text = readString();
+        table.add(text);
+        return text;
+    }
+
+    private String readString() throws IOException {
+        int length = readVarint();
+        if (scratch.length < length)
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        for (int n = 0; n < length; ) {
+            if (!buffer.hasRemaining() && !fill())
+                throw new IOException("binary trace ends early");
+            int chunk = Math.min(length - n, buffer.remaining());
+            buffer.get(scratch, n, chunk);
+            n += chunk;
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readRequired();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("bad varint in binary trace");
+    }
+
+    private int readRequired() throws IOException {
+        int b = read();
+        if (b < 0)
+            throw new IOException("binary trace ends early");
+        return b;
+    }
+
+    /**
+     * @return the next byte, or -1 at the end of the trace
+     */
+    private int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill())
+            return -1;
+        return buffer.get() & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int n;
+        do {
+            n = channel.read(buffer);
+        } while (n == 0);
+        buffer.flip();
+        return n > 0;
+    }
+
+    /**
+     * Usage: BinaryTraceDecoder file
+     * <p>
+     * Prints a binary trace as the text trace.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: BinaryTraceDecoder file");
+            System.exit(1);
+        }
+        try (FileChannel in = FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ)) {
+            ChannelSink out = new ChannelSink(new FileOutputStream(FileDescriptor.out).getChannel());
+            new BinaryTraceDecoder(in).replay(out);
+            out.close();
+        }
+    }
+
+}
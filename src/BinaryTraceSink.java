@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A TraceSink that writes a compact binary trace, which BinaryTraceDecoder turns back into text.
+ * <p>
+ * The trace is a sequence of records, each starting with an opcode byte:
+ * <pre>
+ *   HEADER   'R' 'G' 'G' 'T' version    starts a trace and empties both tables
+ *   BEGIN    ref                        rggBEGIN of the nonterminal named by ref
+ *   END      ref                        rggEND of the nonterminal named by ref
+ *   SUCCESS                             rggSUCCESS
+ *   MESSAGE  length bytes               any other line
+ *   TOKEN+s  line-delta [text]          rggTOKEN of symbol s (1..36)
+ * </pre>
+ * Numbers are unsigned varints and the line delta is a zigzag varint from the previous token.
+ * A ref is 0 followed by length and bytes to add a new entry to a table, or the index of an
+ * existing entry plus one. Nonterminal names share one table; identifiers and numbers share
+ * another; string constants are always written inline. All text is UTF-8.
+ * <p>
+ * The tables are IdentifierTables, whose ids are the indexes plus one, so a name is looked up
+ * straight from the characters of a token and only made into a String the first time it is seen.
+ * <p>
+ * A trace begins with a header, so traces written separately can be concatenated.
+ */
+public class BinaryTraceSink extends TraceSink {
+
+    static final int HEADER = 0x00;
+    static final int BEGIN = 0x01;
+    static final int END = 0x02;
+    static final int SUCCESS = 0x03;
+    static final int MESSAGE = 0x04;
+    static final int TOKEN = 0x40;
+
+    static final byte[] MAGIC = {'R', 'G', 'G', 'T'};
+    static final int VERSION = 1;
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+
+    private final IdentifierTable names = new IdentifierTable(256);
+    private final IdentifierTable strings = new IdentifierTable();
+    private int lastLine;
+
+    /**
+     * @param channel The channel to write to
+     */
+    public BinaryTraceSink(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer.put((byte) HEADER).put(MAGIC).put((byte) VERSION);
+    }
+
+    @Override
+    public void terminal(int symbol, String text, int line) {
+        startToken(symbol, line);
+        if (showsText(symbol))
+            writeText(symbol, text);
+    }
+
+    @Override
+    public void terminal(int symbol, char[] text, int start, int length, int line) {
+        startToken(symbol, line);
+        if (symbol == Token.stringConstant)
+            writeBytes(new String(text, start, length).getBytes(StandardCharsets.UTF_8));
+        else if (showsText(symbol)) {
+            int known = strings.size();
+            writeRef(strings, strings.intern(text, start, length), known);
+        }
+    }
+
+    @Override
+    public void commenceNonterminal(String name) {
+        ensure(1);
+        buffer.put((byte) BEGIN);
+        writeRef(names, name);
+    }
+
+    @Override
+    public void finishNonterminal(String name) {
+        ensure(1);
+        buffer.put((byte) END);
+        writeRef(names, name);
+    }
+
+    @Override
+    public void success() {
+        ensure(1);
+        buffer.put((byte) SUCCESS);
+    }
+
+    @Override
+    public void message(String text) {
+        ensure(1);
+        buffer.put((byte) MESSAGE);
+        writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void startToken(int symbol, int line) {
+        ensure(6);
+        buffer.put((byte) (TOKEN | symbol));
+        int delta = line - lastLine;
+        writeVarint((delta << 1) ^ (delta >> 31));
+        lastLine = line;
+    }
+
+    private void writeText(int symbol, String text) {
+        if (symbol == Token.stringConstant)
+            writeBytes(text.getBytes(StandardCharsets.UTF_8));
+        else
+            writeRef(strings, text);
+    }
+
+    /**
+     * Writes a reference to an entry of a table, adding the entry if it is new.
+     */
+    private void writeRef(IdentifierTable table, String text) {
+        int known = table.size();
+        writeRef(table, table.intern(text), known);
+    }
+
+    /**
+     * Writes a reference to the entry of a table with the given id, writing out the entry itself
+     * if it has only just been added.
+     *
+     * @param known The size of the table before the entry was looked up
+     */
+    private void writeRef(IdentifierTable table, int id, int known) {
+        ensure(5);
+        if (id > known) {
+            writeVarint(0);
+            writeBytes(table.name(id).getBytes(StandardCharsets.UTF_8));
+        } else
+            writeVarint(id);
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensure(5);
+        writeVarint(bytes.length);
+        if (bytes.length > buffer.remaining()) {
+            spill();
+            if (bytes.length > buffer.remaining()) {
+                write(ByteBuffer.wrap(bytes));
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Makes room for at least n more bytes in the buffer.
+     */
+    private void ensure(int n) {
+        if (buffer.remaining() < n)
+            spill();
+    }
+
+    private void spill() {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes a buffer to the channel, turning a failure into an unchecked exception since
+     * events come from code generators that cannot throw IOException.
+     */
+    private void write(ByteBuffer bytes) {
+        try {
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes out the buffer. The channel itself is left open.
+     */
+    @Override
+    public void flush() throws IOException {
+        try {
+            if (buffer.position() > 0)
+                spill();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A TextTraceSink that encodes lines into a reusable buffer and writes them to a channel in large blocks.
+ * <p>
+ * With a background writer, full buffers are handed to a writer thread while parsing carries on
+ * into a spare one. The bytes written are the same as printing each line with a PrintStream in the
+ * platform's default charset.
+ */
+public class ChannelSink extends TextTraceSink {
+
+    /**
+     * The size of each buffer written to the channel.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+    /**
+     * The number of buffers circulating between the parser and a background writer.
+     */
+    private static final int BLOCKS = 4;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final WritableByteChannel channel;
+    private ByteBuffer buffer;
+    private char pendingSurrogate;
+
+    /* Background writer state; writer is null when writing on the calling thread */
+    private Thread writer;
+    private BlockingQueue<ByteBuffer> free;
+    private BlockingQueue<ByteBuffer> full;
+    private volatile IOException writeError;
+
+    /**
+     * A buffer handed to the writer to mark that it should stop.
+     */
+    private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+
+    /**
+     * @param channel The channel to write to
+     */
+    public ChannelSink(WritableByteChannel channel) {
+        this(channel, false);
+    }
+
+    /**
+     * @param channel    The channel to write to
+     * @param background True to write full buffers on a background writer thread
+     */
+    public ChannelSink(WritableByteChannel channel, boolean background) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocate(BLOCK_SIZE);
+
+        if (background) {
+            free = new ArrayBlockingQueue<>(BLOCKS);
+            full = new ArrayBlockingQueue<>(BLOCKS + 1);
+            for (int i = 1; i < BLOCKS; i++)
+                free.add(ByteBuffer.allocate(BLOCK_SIZE));
+            writer = new Thread(this::drain, "trace-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    @Override
+    public TextTraceSink append(String s) {
+        for (int i = 0; i < s.length(); i++)
+            put(s.charAt(i));
+        return this;
+    }
+
+    @Override
+    public TextTraceSink append(char[] c, int start, int length) {
+        for (int i = start; i < start + length; i++)
+            put(c[i]);
+        return this;
+    }
+
+    @Override
+    public TextTraceSink append(int i) {
+        if (buffer.remaining() < 11)
+            spill();
+        if (i < 0) {
+            if (i == Integer.MIN_VALUE)
+                return append(Integer.toString(i));
+            buffer.put((byte) '-');
+            i = -i;
+        }
+        int digits = 1;
+        for (int n = i; n >= 10; n /= 10)
+            digits++;
+        int end = buffer.position() + digits;
+        for (int p = end - 1; p >= buffer.position(); p--) {
+            buffer.put(p, (byte) ('0' + i % 10));
+            i /= 10;
+        }
+        buffer.position(end);
+        return this;
+    }
+
+    @Override
+    public void endLine() {
+        if (buffer.remaining() < LINE_SEPARATOR.length)
+            spill();
+        buffer.put(LINE_SEPARATOR);
+    }
+
+    /**
+     * Encodes one character, taking the fast path for ASCII.
+     */
+    private void put(char c) {
+        if (c < 0x80 && pendingSurrogate == 0) {
+            if (!buffer.hasRemaining())
+                spill();
+            buffer.put((byte) c);
+            return;
+        }
+
+        String s;
+        if (Character.isHighSurrogate(c) && pendingSurrogate == 0) {
+            pendingSurrogate = c;
+            return;
+        } else if (pendingSurrogate != 0) {
+            s = new String(new char[]{pendingSurrogate, c});
+            pendingSurrogate = 0;
+        } else {
+            s = String.valueOf(c);
+        }
+        byte[] bytes = s.getBytes(CHARSET);
+        if (buffer.remaining() < bytes.length)
+            spill();
+        buffer.put(bytes);
+    }
+
+    /**
+     * Passes on a full buffer, turning a write failure into an unchecked exception since
+     * the append methods are called from code generators that cannot throw IOException.
+     */
+    private void spill() {
+        try {
+            writeBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the current buffer, directly or by handing it to the background writer.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        if (writer == null) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+            return;
+        }
+
+        checkWriter();
+        try {
+            full.put(buffer);
+            buffer = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted writing trace", e);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The body of the background writer thread.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                ByteBuffer block = full.take();
+                if (block == STOP)
+                    return;
+                try {
+                    while (block.hasRemaining())
+                        channel.write(block);
+                } catch (IOException e) {
+                    writeError = e;
+                }
+                free.put(block);
+            }
+        } catch (InterruptedException e) {
+            // Closing down
+        }
+    }
+
+    private void checkWriter() throws IOException {
+        if (writeError != null)
+            throw writeError;
+    }
+
+    /**
+     * Writes out the current buffer and, with a background writer, waits for every buffer
+     * handed to it to be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (buffer.position() > 0)
+            writeBuffer();
+
+        if (writer != null) {
+            try {
+                // Every buffer but the one in hand is back on the free queue once written
+                ByteBuffer[] held = new ByteBuffer[BLOCKS - 1];
+                for (int i = 0; i < held.length; i++)
+                    held[i] = free.take();
+                for (ByteBuffer b : held)
+                    free.put(b);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted flushing trace", e);
+            }
+            checkWriter();
+        }
+    }
+
+    /**
+     * Flushes the sink and stops the background writer. The channel itself is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (writer != null) {
+            try {
+                full.put(STOP);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+    }
+
+}
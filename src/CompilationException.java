@@ -13,6 +13,14 @@ public class CompilationException extends Exception
 {
 	private static final int MAX_TRACE_DEPTH = 20;
 
+	/* The details of a lazily formatted exception; expected is null and expectedSymbol 0 for an
+	   ordinary one. */
+	private String expected ;
+	private int expectedSymbol ;
+	private int symbol ;
+	private int lineNumber ;
+	private String fileName ;
+
 	public CompilationException( String message ) {
 		super( message );
 	}
@@ -21,6 +29,67 @@ public class CompilationException extends Exception
 		super( message, cause );
 	}
 
+	/** Creates an exception with a message of its own, optionally without capturing a stack
+	 trace, for a syntax error found at the bottom of a deep parse.
+
+	 @param message The message.
+	 @param stackTrace True to capture a stack trace, as the other constructors with a message do.
+	 */
+	public CompilationException( String message, boolean stackTrace ) {
+		super( message, null, false, stackTrace );
+	}
+
+	/** Creates a syntax error whose message is only formatted when it is asked for, and which
+	 does not capture a stack trace, so that unwinding a deep parse is cheap.
+
+	 @param expected A description of the token(s) that were expected.
+	 @param symbol The symbol actually found, typically as a class constant from Token.
+	 @param lineNumber The line number of the token found.
+	 @param fileName The name of the file being parsed.
+	 @param cause The error this one wraps, or null.
+	 */
+	public CompilationException( String expected, int symbol, int lineNumber, String fileName, CompilationException cause ) {
+		super( null, cause, false, false );
+		this.expected = expected ;
+		this.symbol = symbol ;
+		this.lineNumber = lineNumber ;
+		this.fileName = fileName ;
+	}
+
+	/** Creates a syntax error for a terminal that was expected but not found, formatted only
+	 when it is asked for and without a stack trace, as the first error of a chain.
+
+	 @param expectedSymbol The symbol expected, as a class constant from Token.
+	 @param symbol The symbol actually found, typically as a class constant from Token.
+	 @param lineNumber The line number of the token found.
+	 @param fileName The name of the file being parsed.
+	 */
+	public CompilationException( int expectedSymbol, int symbol, int lineNumber, String fileName ) {
+		this( null, symbol, lineNumber, fileName, null );
+		this.expectedSymbol = expectedSymbol ;
+	}
+
+	@Override
+	public String getMessage() {
+		if( expected == null && expectedSymbol == 0 )
+			return super.getMessage();
+		String what = ( expected != null ) ? expected : "<" + Token.getName( expectedSymbol ) + ">" ;
+		return "line " + lineNumber + " in " + fileName + ":\n\t\t\t- Expected token(s) " + what +
+				" but found (" + Token.getName( symbol ) + ").\n";
+	}
+
+	/** Returns the number of errors in the chain of causes, this one included, which is how
+	 many nonterminals the first error was passed up through.
+
+	 @return the depth of the error.
+	 */
+	public int getDepth() {
+		int depth = 0;
+		for( Throwable err = this; err != null; err = err.getCause() )
+			depth++;
+		return depth;
+	}
+
 	public String toTraceString() {
 		StringBuffer buffer = new StringBuffer();
 		Throwable err = this;
@@ -8,10 +8,70 @@
 
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
 
 public class Compile {
 
-    public static String fileName;
+    /** The message a command line that is not understood is answered with. */
+    static final String USAGE = "usage: Compile [-threads n | -parallel] [-nio] [-tokens] [-buffered [-background] | -binary file] [-recover n] [-stream] [-stack [-depth n] | -table] [-validate] [-pipeline] [-profile ms] [-jfr file] [-cache dir [-cachesize mb]]";
+
+    /** The number of worker threads to compile with, 0 meaning compile on the main thread. */
+    private int threads = 0;
+    /** True to read sources through the memory-mapped lexer backend. */
+    private boolean mapped = false;
+    /** True to parse in token-stream mode, with one reusable TokenStream per thread. */
+    private boolean tokenStream = false;
+    private final ThreadLocal<TokenStream> tokenStreams = ThreadLocal.withInitial(TokenStream::new);
+    /** The analysers of each thread, made for its first file and reset for each file after. */
+    private final ThreadLocal<Analysers> analysers = ThreadLocal.withInitial(Analysers::new);
+    /** True to write the trace through a buffered ChannelSink rather than line by line. */
+    private boolean buffered = false;
+    /** True to flush the buffered trace on a background writer thread. */
+    private boolean background = false;
+    /** The file to write a binary trace to, or null to write the text trace to standard output. */
+    private String binaryFile = null;
+    /** The most syntax errors to report per file, or 0 to stop at the first. */
+    private int maxErrors = 0;
+    /** True to push each file through a StreamingParser in chunks rather than read it with LexicalAnalyser. */
+    private boolean streaming = false;
+    /** True to parse with the explicit-stack StackSyntaxAnalyser. */
+    private boolean stack = false;
+    /** The depth limit of the StackSyntaxAnalyser, when parsing with it. */
+    private int stackDepth = StackSyntaxAnalyser.DEFAULT_DEPTH_LIMIT;
+    /** True to only find out whether each file is valid, leaving the events of the grammar out of the trace. */
+    private boolean validate = false;
+    /** True to parse with the table-driven TableSyntaxAnalyser. */
+    private boolean table = false;
+    /** True to lex each file on a thread of its own, ahead of the parser, through a PipelinedLexer. */
+    private boolean pipelined = false;
+    /** The PipelinedLexer of every worker thread, whose lexer threads are stopped at the end of a run. */
+    private final ConcurrentLinkedQueue<PipelinedLexer> pipelines = new ConcurrentLinkedQueue<>();
+    /** The milliseconds between dumps of the parse profile, 0 to dump it only at the end, or -1 not to profile. */
+    private long profileMillis = -1;
+    /** The profiler every parse is counted in, when profiling. */
+    private ParseProfiler profiler = null;
+    /** The file to write a flight recording of the compiler's events to, or null not to record them. */
+    private String jfrFile = null;
+    /** The directory of the cache of compile results, or null not to cache them. */
+    private String cacheDir = null;
+    /** The most bytes the cache of compile results may take up. */
+    private long cacheBytes = 256L << 20;
+    /** The cache of compile results, when caching. */
+    private ResultCache cache = null;
+    /** The options that change the output of a compile, as part of each cache key. */
+    private String cacheOptions;
+    /** The directory relative file names are taken from, or null for the working directory. */
+    private File directory = null;
+    /** The stream timings and reports are written to. */
+    private PrintStream stderr = System.err;
+    /** The table the identifiers of every file of a run are interned in, shared by its workers. */
+    private IdentifierTable identifiers;
 
     /**
      *
@@ -19,46 +79,526 @@ public class Compile {
      *
      **/
     private void go() throws IOException {
+        OutputStream stdout = System.out;
+        if (buffered && binaryFile == null)
+            stdout = new FileOutputStream(FileDescriptor.out);
+        System.exit(run(null, stdout, System.err));
+    } // end of main method
+
+    /**
+     * Compiles the series of programs with the options this Compile was made with, as main does
+     * but without exiting, so that a CompileDaemon can run it for each of its clients.
+     *
+     * @param directory The directory relative file names are taken from, or null for the working directory.
+     * @param stdout    The stream the text trace is written to.
+     * @param stderr    The stream timings and reports are written to.
+     * @return The exit status.
+     */
+    int run(File directory, OutputStream stdout, PrintStream stderr) throws IOException {
+        this.directory = directory;
+        this.stderr = stderr;
+        identifiers = new IdentifierTable();
         String prefix = "Programs Folder" + File.separator + "program";
         int fileNumber = -1;
         int exitFlag = 0;
-        System.out.println("rggSTART");
+        OutputStream traceOut = stdout;
+        if (binaryFile != null)
+            traceOut = new FileOutputStream(file(binaryFile));
+        // With -threads or -cache each file is traced into a buffer of its own, which is copied
+        // straight to traceOut, so a background writer would have nothing to write
+        TraceSink sink = newSink(traceOut, background && (threads == 0) && (cacheDir == null));
+        sink.message("rggSTART");
         PrintStream out = null;
         String outputFile = new String("res.txt");
-        boolean goon = true;
+        long startTime = System.nanoTime();
+
+        jdk.jfr.Recording recording = null;
+        if (jfrFile != null) {
+            recording = new jdk.jfr.Recording();
+            recording.enable(FileCompiledEvent.class);
+            recording.enable(ParseFailedEvent.class);
+            recording.enable(LexerChunkEvent.class);
+            recording.start();
+        }
+
+        if (cacheDir != null) {
+            cache = new ResultCache(file(cacheDir).toPath(), cacheBytes);
+            cacheOptions = "binary=" + (binaryFile != null) + " recover=" + maxErrors + " stream=" + streaming
+                    + " stack=" + (stack ? stackDepth : 0) + " table=" + table + " validate=" + validate;
+        }
+
+        boolean registered = false;
+        if (profileMillis >= 0) {
+            profiler = new ParseProfiler();
+            try {
+                profiler.register();
+                registered = true;
+            } catch (javax.management.JMException e) {
+                stderr.println("unable to register the parse profiler " + e);
+            }
+            if (profileMillis > 0)
+                profiler.startDump(stderr, profileMillis);
+        }
 
         try {
-            out = new PrintStream(new FileOutputStream(outputFile));
+            out = new PrintStream(new FileOutputStream(file(outputFile)));
         } catch (Exception e) {
-            System.out.println("unable to open output file " + e);
-            System.exit(0);
+            sink.message("unable to open output file " + e);
+            sink.close();
+            return 0;
+        }
+
+        try {
+            fileNumber = compileAll(prefix, out, sink, traceOut);
+        } finally {
+            // A lexer thread waits for the next file of its worker until it is told there are none
+            for (PipelinedLexer pipeline : pipelines)
+                pipeline.shutdown();
+        }
+
+        sink.message("");
+        sink.message("rggFINISH");
+        sink.close();
+        if (traceOut != stdout)
+            traceOut.close();
+        else
+            traceOut.flush();
+        out.flush();
+        out.close();
+        if (recording != null) {
+            recording.stop();
+            recording.dump(file(jfrFile).toPath());
+            recording.close();
         }
+        reportTime(fileNumber, System.nanoTime() - startTime);
+        if (cache != null)
+            stderr.printf("cache: %d hits, %d misses, %.1f MB%n", cache.hits(), cache.misses(), cache.size() / 1e6);
+        if (profiler != null) {
+            profiler.stopDump();
+            stderr.print(profiler.getReport());
+            if (registered) {
+                try {
+                    profiler.unregister();
+                } catch (javax.management.JMException e) {
+                    stderr.println("unable to unregister the parse profiler " + e);
+                }
+            }
+        }
+        return exitFlag;
+    } // end of method run
+
+    /**
+     * Finds a file named on the command line or in the series of programs.
+     *
+     * @param name The name of the file, relative to the directory of the run unless absolute.
+     * @return The file.
+     */
+    private File file(String name) {
+        File f = new File(name);
+        return (directory == null || f.isAbsolute()) ? f : new File(directory, name);
+    } // end of method file
+
+    /**
+     * Creates a sink for the trace of the kind chosen on the command line.
+     *
+     * @param os         The stream the trace is written to.
+     * @param background True to let a buffered sink write on a background thread.
+     * @return The new sink.
+     */
+    private TraceSink newSink(OutputStream os, boolean background) {
+        if (binaryFile != null)
+            return new BinaryTraceSink(channelOf(os));
+        else if (buffered)
+            return new ChannelSink(channelOf(os), background);
+        else
+            return new PrintStreamSink((os instanceof PrintStream) ? (PrintStream) os : new PrintStream(os));
+    } // end of method newSink
 
+    /**
+     * Compiles each file of a numbered series, from prefix0 up to the first that does not exist.
+     *
+     * @param prefix   The name of each file without its number.
+     * @param out      The stream results are written to.
+     * @param sink     The sink the trace is written to.
+     * @param traceOut The stream under the sink, for buffered traces to be written to in order.
+     * @return The number of files compiled.
+     */
+    int compileAll(String prefix, PrintStream out, TraceSink sink, OutputStream traceOut) throws IOException {
+        if (threads > 0)
+            return goParallel(prefix, out, sink, traceOut);
+
+        int fileNumber = -1;
+        boolean goon = true;
         while (goon) {
             fileNumber++;
-            fileName = prefix + fileNumber;
-            goon = ((new File(fileName)).exists());
+            // A local rather than a field, as a daemon may be running several compiles at once
+            String name = prefix + fileNumber;
+            goon = file(name).exists();
             if (goon) {
-                System.out.println();
-                System.out.println("rggFILE " + fileName);
+                if (cache != null) {
+                    // Cached output is whole files, so each file is compiled into buffers of its own
+                    byte[][] output = compileFile(name);
+                    sink.flush();
+                    traceOut.write(output[0]);
+                    out.write(output[1]);
+                    continue;
+                }
+                sink.message("");
+                sink.message("rggFILE " + name);
 
-                SyntaxAnalyser syn = new SyntaxAnalyser(fileName);
-                syn.parse(out);
-            } else System.out.println(fileName + " does not exist");
+                parseFile(name, out, sink);
+            } else sink.message(name + " does not exist");
         }
+        return fileNumber;
+    } // end of method compileAll
 
-        System.out.println();
-        System.out.println("rggFINISH");
-        out.flush();
-        out.close();
-        System.exit(exitFlag);
-    } // end of main method
+    private static WritableByteChannel channelOf(OutputStream os) {
+        if (os instanceof FileOutputStream)
+            return ((FileOutputStream) os).getChannel();
+        return Channels.newChannel(os);
+    } // end of method channelOf
+
+    /**
+     * Compiles every program on a pool of worker threads, each file with its own analysers.
+     * The trace and results of each file are buffered and written out in file order.
+     *
+     * @param prefix   The path prefix of the program files.
+     * @param out      The stream results are written to.
+     * @param sink     The sink for the trace lines of the driver itself.
+     * @param traceOut The stream under sink, that each file's trace is copied to.
+     * @return The number of files compiled.
+     */
+    private int goParallel(String prefix, PrintStream out, TraceSink sink, OutputStream traceOut) throws IOException {
+        // Only a window of files is compiled ahead of the one being written, so that the buffers
+        // held at once do not grow with the number of files
+        int window = 2 * threads;
+        ArrayDeque<Future<byte[][]>> results = new ArrayDeque<>(window);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        int fileNumber = 0;
+
+        String next = prefix + fileNumber;
+        boolean more = true;
+        boolean done = false;
+        try {
+            while (true) {
+                while (more && results.size() < window) {
+                    more = file(next).exists();
+                    if (more) {
+                        final String name = next;
+                        results.add(pool.submit(() -> compileFile(name)));
+                        fileNumber++;
+                        next = prefix + fileNumber;
+                    }
+                }
+                // Taking the future off the queue lets its buffers go once they are written
+                Future<byte[][]> result = results.poll();
+                if (result == null)
+                    break;
+                byte[][] buffers = result.get();
+                // Each file's trace is complete in itself (a binary trace restarts its tables),
+                // so it can be copied in after whatever the driver's sink has written.
+                sink.flush();
+                traceOut.write(buffers[0]);
+                out.write(buffers[1]);
+            }
+            done = true;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("parallel compilation failed", e);
+        } finally {
+            // The pool's threads would outlive a failed run, which in a CompileDaemon goes on
+            if (done)
+                pool.shutdown();
+            else
+                pool.shutdownNow();
+        }
+
+        sink.message(next + " does not exist");
+        return fileNumber;
+    } // end of method goParallel
+
+    /**
+     * Compiles a single file into in-memory trace and result buffers, or takes them from the
+     * cache if the same file has been compiled with the same options before.
+     *
+     * @param name The file to compile.
+     * @return The trace and result buffers, in that order.
+     */
+    private byte[][] compileFile(String name) throws IOException {
+        String key = null;
+        if (cache != null) {
+            key = cache.key(file(name).toPath(), cacheOptions);
+            byte[][] cached = cache.get(key);
+            if (cached != null)
+                return cached;
+        }
+
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        TraceSink traceSink = newSink(trace, false);
+        PrintStream resultStream = new PrintStream(result);
+
+        traceSink.message("");
+        traceSink.message("rggFILE " + name);
+
+        parseFile(name, resultStream, traceSink);
+
+        traceSink.close();
+        resultStream.flush();
+        byte[][] output = {trace.toByteArray(), result.toByteArray()};
+        if (cache != null)
+            cache.put(key, output[0], output[1]);
+        return output;
+    } // end of method compileFile
+
+    /**
+     * Parses one file with the analysers chosen on the command line.
+     *
+     * @param name  The file to parse.
+     * @param out   The stream results are written to.
+     * @param trace The sink the trace is written to.
+     */
+    private void parseFile(String name, PrintStream out, TraceSink trace) throws IOException {
+        FileCompiledEvent compiled = new FileCompiledEvent();
+        compiled.begin();
+        long tokens = -1;
+        boolean success;
+        if (streaming) {
+            try (FileChannel in = FileChannel.open(file(name).toPath(), StandardOpenOption.READ)) {
+                success = StreamingParser.parse(in, name, out, trace, maxErrors);
+            }
+        } else {
+            AbstractSyntaxAnalyser syn = parseWithAnalyser(name, out, trace);
+            // The first token is read before any advance, and accepting EOF reads it once more
+            tokens = syn.tokensRead + ((syn.getFailure() == null) ? 0 : 1);
+            success = (syn.getFailure() == null) && syn.getDiagnostics().isEmpty();
+            recordFailures(name, syn);
+        }
+        compiled.end();
+        if (compiled.shouldCommit()) {
+            compiled.fileName = name;
+            compiled.bytes = file(name).length();
+            compiled.tokens = tokens;
+            compiled.success = success;
+            compiled.commit();
+        }
+    } // end of method parseFile
+
+    /**
+     * The analysers of one worker thread, each made the first time it is needed.
+     */
+    private static class Analysers {
+        LexicalAnalyser lex;
+        PipelinedLexer pipeline;
+        SyntaxAnalyser syntax;
+        StackSyntaxAnalyser stack;
+        TableSyntaxAnalyser table;
+    }
+
+    /**
+     * Parses one file with the syntax analyser chosen on the command line.
+     * The analysers of the thread are reset to parse it, rather than made for it.
+     *
+     * @param name  The file to parse.
+     * @param out   The stream results are written to.
+     * @param trace The sink the trace is written to.
+     * @return The analyser, for the outcome of the parse.
+     */
+    private AbstractSyntaxAnalyser parseWithAnalyser(String name, PrintStream out, TraceSink trace) throws IOException {
+        Analysers pool = analysers.get();
+        if (pool.lex == null)
+            pool.lex = new LexicalAnalyser();
+        // The file is opened relative to the directory of the run, but known by its own name
+        pool.lex.reset(file(name).getPath(), mapped);
+        pool.lex.setIdentifierTable(identifiers);
+        TokenSource lex = pool.lex;
+        if (pipelined) {
+            if (pool.pipeline == null) {
+                pool.pipeline = new PipelinedLexer();
+                pipelines.add(pool.pipeline);
+            }
+            pool.pipeline.reset(pool.lex);
+            lex = pool.pipeline;
+        }
+        AbstractSyntaxAnalyser syn;
+        if (table) {
+            if (pool.table == null)
+                pool.table = new TableSyntaxAnalyser(lex, name);
+            pool.table.reset(lex, name);
+            syn = pool.table;
+        } else if (stack) {
+            if (pool.stack == null)
+                pool.stack = new StackSyntaxAnalyser(lex, name);
+            pool.stack.reset(lex, name);
+            pool.stack.setDepthLimit(stackDepth);
+            syn = pool.stack;
+        } else {
+            if (pool.syntax == null)
+                pool.syntax = new SyntaxAnalyser(lex, name);
+            pool.syntax.reset(lex, name);
+            syn = pool.syntax;
+        }
+        if (tokenStream)
+            syn.setTokenStream(tokenStreams.get());
+        syn.setRecovery(maxErrors);
+        syn.setProfiler(profiler);
+        try {
+            if (validate)
+                syn.validate(out, trace);
+            else
+                syn.parse(out, trace);
+        } finally {
+            // The lexer thread may still be reading ahead of a parse that stopped at an error,
+            // and must have finished with the lexer before it is closed
+            if (pipelined)
+                pool.pipeline.close();
+            pool.lex.close();
+        }
+        return syn;
+    } // end of method parseWithAnalyser
+
+    /**
+     * Records a flight recorder event for each syntax error a parse reported, if the event is on.
+     *
+     * @param name The file parsed.
+     * @param syn  The analyser that parsed it.
+     */
+    private static void recordFailures(String name, AbstractSyntaxAnalyser syn) {
+        if (!new ParseFailedEvent().isEnabled())
+            return;
+        for (CompilationException error : syn.getDiagnostics())
+            recordFailure(name, error, true);
+        if (syn.getFailure() != null)
+            recordFailure(name, syn.getFailure(), false);
+    } // end of method recordFailures
+
+    private static void recordFailure(String name, CompilationException error, boolean recovered) {
+        Throwable innermost = error;
+        while (innermost.getCause() != null)
+            innermost = innermost.getCause();
+        ParseFailedEvent event = new ParseFailedEvent();
+        event.fileName = name;
+        event.depth = error.getDepth();
+        event.message = String.valueOf(innermost.getMessage()).replaceAll("\\s+", " ").trim();
+        event.recovered = recovered;
+        event.commit();
+    } // end of method recordFailure
 
+    /**
+     * Reports the wall time and throughput of the run on standard error.
+     *
+     * @param files   The number of files compiled.
+     * @param elapsed The wall time in nanoseconds.
+     */
+    private void reportTime(int files, long elapsed) {
+        double seconds = elapsed / 1e9;
+        stderr.printf("compiled %d files on %d thread(s) in %.3f s (%.1f files/sec)%n",
+                files, Math.max(threads, 1), seconds, seconds > 0 ? files / seconds : 0.0);
+    } // end of method reportTime
+
+    /**
+     * Usage: Compile [-threads n | -parallel] [-nio] [-tokens] [-buffered [-background] | -binary file] [-recover n] [-stream] [-stack [-depth n] | -table] [-validate] [-pipeline] [-profile ms] [-jfr file] [-cache dir [-cachesize mb]]
+     * <p>
+     * With -pipeline each file is lexed on a thread of its own, running ahead of the parser.
+     * <p>
+     * With -validate each file is only checked: the trace has the rggFILE line and the success or
+     * error message of each file but no rggTOKEN, rggBEGIN or rggEND lines, and res.txt is the same
+     * as in a full compile. It has no effect on -stream.
+     * <p>
+     * With -profile every parse is timed by nonterminal and kind of token, the counts are
+     * published through JMX as RecursiveDescentRecogniser:type=ParseProfiler and written to
+     * standard error every ms milliseconds, if ms is more than 0, and at the end.
+     * <p>
+     * With -jfr the flight recorder events FileCompiled, ParseFailed and LexerChunk, which are
+     * off by default, are recorded to a file that can be read with jfr print. They can also be
+     * turned on in any recording, such as a continuous one, by a settings file that enables
+     * recogniser.FileCompiled, recogniser.ParseFailed and recogniser.LexerChunk.
+     * <p>
+     * With -cache the output of compiling each file is kept in a ResultCache in the directory,
+     * of up to mb megabytes (256 by default), and a file compiled before with the same options
+     * is not parsed again.
+     * <p>
+     * With -background the buffered trace is written on a thread of its own while parsing carries
+     * on. It has no effect with -threads or -cache, which trace each file into a buffer of its own
+     * and copy that out, and no writer thread is started.
+     **/
     public static void main(String args[]) throws IOException {
-        Compile c = new Compile();
+        Compile c;
+        try {
+            c = fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
         c.go();
     }
 
+    /**
+     * Makes a Compile with the options given on a command line.
+     *
+     * @param args The command line.
+     * @return The new Compile.
+     * @throws IllegalArgumentException with the usage message, if the command line is not understood.
+     */
+    static Compile fromArgs(String[] args) {
+        Compile c = new Compile();
+        try {
+            parseArgs(c, args);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        return c;
+    } // end of method fromArgs
+
+    private static void parseArgs(Compile c, String[] args) {
+        boolean depth = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length)
+                c.threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-parallel"))
+                c.threads = Runtime.getRuntime().availableProcessors();
+            else if (args[i].equals("-nio"))
+                c.mapped = true;
+            else if (args[i].equals("-tokens"))
+                c.tokenStream = true;
+            else if (args[i].equals("-buffered"))
+                c.buffered = true;
+            else if (args[i].equals("-background"))
+                c.buffered = c.background = true;
+            else if (args[i].equals("-binary") && i + 1 < args.length)
+                c.binaryFile = args[++i];
+            else if (args[i].equals("-recover") && i + 1 < args.length)
+                c.maxErrors = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-stream"))
+                c.streaming = true;
+            else if (args[i].equals("-table"))
+                c.table = true;
+            else if (args[i].equals("-validate"))
+                c.validate = true;
+            else if (args[i].equals("-pipeline"))
+                c.pipelined = true;
+            else if (args[i].equals("-stack"))
+                c.stack = true;
+            else if (args[i].equals("-depth") && i + 1 < args.length) {
+                c.stackDepth = Integer.parseInt(args[++i]);
+                depth = true;
+            }
+            else if (args[i].equals("-profile") && i + 1 < args.length)
+                c.profileMillis = Long.parseLong(args[++i]);
+            else if (args[i].equals("-jfr") && i + 1 < args.length)
+                c.jfrFile = args[++i];
+            else if (args[i].equals("-cache") && i + 1 < args.length)
+                c.cacheDir = args[++i];
+            else if (args[i].equals("-cachesize") && i + 1 < args.length)
+                c.cacheBytes = Long.parseLong(args[++i]) << 20;
+            else
+                throw new IllegalArgumentException(USAGE);
+        }
+        // A depth limit only means anything to the stack parser
+        if (depth && (!c.stack || c.stackDepth <= 0))
+            throw new IllegalArgumentException(USAGE);
+    } // end of method parseArgs
+
     ;
 
 } // end of class Compile
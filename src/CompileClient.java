@@ -0,0 +1,102 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Runs a compile on a CompileDaemon and writes out what it sends back, so that it gives the same
+ * output and exit status as Compile run in the same directory. If no daemon is listening, the
+ * compile is run in this process instead. A Unix domain socket owned by another user is not
+ * used, and over TCP the daemon's token is read from its file and sent first, so a daemon of
+ * another user, whose token file cannot be read, is not used either.
+ */
+public class CompileClient {
+
+    /**
+     * Usage: CompileClient [-socket path | -port n] [-stop | Compile options...]
+     */
+    public static void main(String[] args) throws IOException {
+        String socket = CompileDaemon.defaultSocket();
+        int port = 0;
+        boolean stop = false;
+        int i = 0;
+        for (; i < args.length; i++) {
+            if (args[i].equals("-socket") && i + 1 < args.length)
+                socket = args[++i];
+            else if (args[i].equals("-port") && i + 1 < args.length)
+                port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-stop"))
+                stop = true;
+            else
+                break;
+        }
+        String[] compileArgs = Arrays.copyOfRange(args, i, args.length);
+
+        SocketAddress address = CompileDaemon.address(socket, port);
+        SocketChannel channel;
+        byte[] token = null;
+        try {
+            if (address instanceof InetSocketAddress)
+                token = Files.readAllBytes(CompileDaemon.tokenFile(port));
+            else if (!CompileDaemon.ownedByUser(((UnixDomainSocketAddress) address).getPath()))
+                throw new IOException(address + " is owned by another user");
+            channel = (address instanceof UnixDomainSocketAddress)
+                    ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+            channel.connect(address);
+        } catch (IOException e) {
+            if (stop) {
+                System.err.println("no daemon listening on " + address);
+                System.exit(1);
+            }
+            Compile.main(compileArgs);
+            return;
+        }
+
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+            if (token != null)
+                request.write(token);
+            if (stop) {
+                request.writeByte(CompileDaemon.STOP);
+            } else {
+                request.writeByte(CompileDaemon.COMPILE);
+                request.writeUTF(System.getProperty("user.dir"));
+                request.writeInt(compileArgs.length);
+                for (String arg : compileArgs)
+                    request.writeUTF(arg);
+            }
+            request.flush();
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+            OutputStream stderr = new FileOutputStream(FileDescriptor.err);
+            byte[] buffer = new byte[1 << 16];
+            while (true) {
+                int kind = response.readByte();
+                if (kind == CompileDaemon.EXIT)
+                    System.exit(response.readInt());
+                OutputStream to = (kind == CompileDaemon.STDOUT) ? stdout : stderr;
+                int length = response.readInt();
+                while (length > 0) {
+                    int n = response.read(buffer, 0, Math.min(length, buffer.length));
+                    if (n < 0)
+                        throw new IOException("the daemon closed the connection");
+                    to.write(buffer, 0, n);
+                    length -= n;
+                }
+            }
+        }
+    }
+
+}
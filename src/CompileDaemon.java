@@ -0,0 +1,327 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-lived process that runs compiles for CompileClient, so that each run is spared starting
+ * a JVM and warming up its JIT.
+ * <p>
+ * The daemon listens on a Unix domain socket, or on a TCP port of the loopback address. A client
+ * sends its working directory and its Compile command line, and the daemon runs a Compile with
+ * them, relative to that directory, on a thread of its own, so any number of requests can run at
+ * once. The trace and everything written to standard error are sent back in frames as they are
+ * written, followed by the exit status. res.txt and any other files are written by the daemon
+ * into the client's directory, just as Compile would.
+ * <p>
+ * A compile runs with the daemon's rights, so only its own user may ask for one. The Unix domain
+ * socket is made readable and writable by its owner alone, and the kernel keeps anyone else from
+ * connecting to it. By default it is in the user's home directory rather than the shared
+ * temporary one, and a client will not use a socket that another user owns, so no one else can
+ * stand in for the daemon. A TCP port on the loopback address is open to every local user, so on
+ * starting the daemon writes a random token to a file in the user's home directory that only its
+ * owner can read, and a client must send the token before its request. A connection that does
+ * not send it within TOKEN_TIMEOUT milliseconds, or sends the wrong one, is closed without a reply.
+ * <p>
+ * The protocol, all big-endian:
+ * <ul>
+ * <li>token, over TCP only: the TOKEN_LENGTH bytes of the token file</li>
+ * <li>request: the byte COMPILE, the directory as modified UTF-8, the number of arguments as an
+ * int and each argument as modified UTF-8; or the byte STOP</li>
+ * <li>response: frames of the byte STDOUT or STDERR, an int length and that many bytes, ending
+ * with the byte EXIT and the status as an int</li>
+ * </ul>
+ */
+public class CompileDaemon {
+
+    /* Requests */
+    static final int COMPILE = 1;
+    static final int STOP = 2;
+    /* Frames of a response */
+    static final int EXIT = 0;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+
+    /** The number of bytes in the token a TCP client must send first. */
+    static final int TOKEN_LENGTH = 32;
+    /** The milliseconds a TCP client is given to send its token. */
+    static final int TOKEN_TIMEOUT = 10_000;
+
+    private final ServerSocketChannel server;
+    private final Path socketFile;
+    /* The token a TCP client must send, and the file it is kept in, or null on a Unix socket */
+    private final byte[] token;
+    private final Path tokenFile;
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+
+    /**
+     * @param address The address to listen on, either a Unix domain socket or a TCP one
+     * @throws IOException if the address cannot be bound, or the token file cannot be written
+     */
+    public CompileDaemon(SocketAddress address) throws IOException {
+        if (address instanceof UnixDomainSocketAddress) {
+            socketFile = ((UnixDomainSocketAddress) address).getPath();
+            // A socket left behind by a daemon that did not stop cleanly
+            Files.deleteIfExists(socketFile);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(address);
+            ownerOnly(socketFile);
+            token = null;
+            tokenFile = null;
+        } else {
+            socketFile = null;
+            server = ServerSocketChannel.open();
+            server.bind(address);
+            token = new byte[TOKEN_LENGTH];
+            new SecureRandom().nextBytes(token);
+            tokenFile = tokenFile(((InetSocketAddress) server.getLocalAddress()).getPort());
+            Files.deleteIfExists(tokenFile);
+            // Made empty and private before the token is written into it
+            Files.createFile(tokenFile);
+            ownerOnly(tokenFile);
+            Files.write(tokenFile, token, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+    }
+
+    /**
+     * Takes away every permission on a file from everyone but its owner.
+     */
+    private static void ownerOnly(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            File f = file.toFile();
+            if (!(f.setReadable(false, false) && f.setReadable(true, true)
+                    && f.setWritable(false, false) && f.setWritable(true, true)))
+                throw new IOException("cannot make " + file + " private to its owner");
+        }
+    }
+
+    /**
+     * @param socket The path of a Unix domain socket
+     * @param port   A TCP port on the loopback address, or 0 to use the socket
+     * @return The address a daemon listens on and a client connects to
+     */
+    static SocketAddress address(String socket, int port) {
+        if (port > 0)
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        return UnixDomainSocketAddress.of(socket);
+    }
+
+    /**
+     * @return The socket used when none is given, in the user's home directory
+     */
+    static String defaultSocket() {
+        return Paths.get(System.getProperty("user.home"), ".recogniser.sock").toString();
+    }
+
+    /**
+     * @param file A file
+     * @return true if the file is owned by the user running this process
+     * @throws IOException if the owner of the file cannot be read
+     */
+    static boolean ownedByUser(Path file) throws IOException {
+        UserPrincipal user = file.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        return Files.getOwner(file).equals(user);
+    }
+
+    /**
+     * @param port The TCP port a daemon listens on
+     * @return The file the token of the daemon on that port is kept in, in the user's home directory
+     */
+    static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".recogniser-" + port + ".token");
+    }
+
+    /**
+     * Parses a generated program a number of times, so that the lexer and parser are compiled by
+     * the JIT before the first request.
+     *
+     * @param rounds The number of parses
+     */
+    public void warmUp(int rounds) throws IOException {
+        StringWriter program = new StringWriter();
+        new ProgramGenerator(254).generate(program, 1 << 20);
+        String text = program.toString();
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        TokenStream tokens = new TokenStream();
+        for (int i = 0; i < rounds; i++) {
+            SyntaxAnalyser syn = new SyntaxAnalyser(new LexicalAnalyser(new StringReader(text)), "warm-up");
+            if (i % 2 == 1)
+                syn.setTokenStream(tokens);
+            syn.parse(discard, new PrintStreamSink(discard));
+        }
+    }
+
+    /**
+     * Accepts requests until one asks the daemon to stop, then waits for those still running.
+     */
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (AsynchronousCloseException e) {
+                    break;
+                }
+                workers.execute(() -> handle(client));
+            }
+        } finally {
+            workers.shutdown();
+            if (socketFile != null)
+                Files.deleteIfExists(socketFile);
+            if (tokenFile != null)
+                Files.deleteIfExists(tokenFile);
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client), 1 << 16));
+            if (token != null) {
+                // Read through the socket, whose reads time out, rather than through the channel
+                Socket socket = client.socket();
+                socket.setSoTimeout(TOKEN_TIMEOUT);
+                byte[] sent = new byte[TOKEN_LENGTH];
+                new DataInputStream(socket.getInputStream()).readFully(sent);
+                if (!MessageDigest.isEqual(sent, token))
+                    return;
+            }
+            int request = in.readByte();
+            if (request == STOP) {
+                server.close();
+                exit(out, 0);
+                return;
+            }
+
+            File directory = new File(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++)
+                args[i] = in.readUTF();
+
+            int status;
+            PrintStream stdout = new PrintStream(new BufferedOutputStream(new FrameStream(out, STDOUT), 1 << 16));
+            PrintStream stderr = new PrintStream(new FrameStream(out, STDERR), true);
+            try {
+                status = Compile.fromArgs(args).run(directory, stdout, stderr);
+            } catch (IllegalArgumentException e) {
+                stderr.println(e.getMessage());
+                status = 1;
+            } catch (Exception e) {
+                e.printStackTrace(stderr);
+                status = 1;
+            }
+            stdout.flush();
+            stderr.flush();
+            exit(out, status);
+        } catch (IOException e) {
+            // The client has gone away; there is no one to tell
+        }
+    }
+
+    private static void exit(DataOutputStream out, int status) throws IOException {
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    /**
+     * Sends whatever is written to it as frames of one kind. Standard output and standard error
+     * share the connection, so a whole frame is written at a time.
+     */
+    private static class FrameStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final int kind;
+
+        FrameStream(DataOutputStream out, int kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            synchronized (out) {
+                out.writeByte(kind);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Usage: CompileDaemon [-socket path | -port n] [-warmup n]
+     * <p>
+     * Warms up with n parses of a generated program, 20 by default, then serves requests until
+     * CompileClient -stop.
+     */
+    public static void main(String[] args) throws IOException {
+        String socket = defaultSocket();
+        int port = 0;
+        int warmups = 20;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-socket") && i + 1 < args.length)
+                socket = args[++i];
+            else if (args[i].equals("-port") && i + 1 < args.length)
+                port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-warmup") && i + 1 < args.length)
+                warmups = Integer.parseInt(args[++i]);
+            else {
+                System.err.println("usage: CompileDaemon [-socket path | -port n] [-warmup n]");
+                System.exit(1);
+            }
+        }
+
+        SocketAddress address = address(socket, port);
+        CompileDaemon daemon = new CompileDaemon(address);
+        daemon.warmUp(warmups);
+        System.err.println("listening on " + address);
+        daemon.serve();
+    }
+
+}
@@ -0,0 +1,309 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The benchmark suite for the lexer, the parser and whole compiles, each over a small, a medium
+ * and a very large corpus, as a baseline for performance work.
+ * <p>
+ * <ul>
+ * <li>lexer: LexicalAnalyser.getNextToken over every file, to EOF</li>
+ * <li>parser: SyntaxAnalyser.parse of every file, with the trace and errors discarded</li>
+ * <li>validate: SyntaxAnalyser.validate of every file, with the errors discarded</li>
+ * <li>compile: Compile over the whole series of files, writing the trace and results to files</li>
+ * </ul>
+ * The small corpus is Programs Folder. The medium and large ones are written to a temporary
+ * directory from copies of the bodies of its valid programs: ten files of 500 copies, and one file
+ * of 20000.
+ * <p>
+ * Each benchmark is warmed up and then run for a number of timed iterations, each made of as many
+ * operations as fit in the iteration time. It reports the mean time per operation with a 99.9%
+ * confidence interval, tokens per second, and like the GC profiler of a benchmark harness, the
+ * bytes allocated per operation and per second on the benchmark thread and the collections that
+ * happened while measuring. The interval is from Student's t distribution, as the number of
+ * iterations is small.
+ * <p>
+ * This is a harness of its own rather than a JMH module with its GC profiler, as the repository
+ * has no build file to bring JMH in with; the measurements are made the same way by hand.
+ * <p>
+ * Usage: CompilerBenchmark [-warmup n] [-iterations n] [-time ms] [lexer|parser|validate|compile ...] [small|medium|large ...]
+ */
+public class CompilerBenchmark {
+
+    private static final String[] BENCHMARKS = {"lexer", "parser", "validate", "compile"};
+    private static final String[] SIZES = {"small", "medium", "large"};
+
+    private int warmups = 5;
+    private int iterations = 10;
+    private long iterationNanos = 1_000_000_000L;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+    private Path scratch;
+    /* The results of every operation, added up so that none can be optimised away */
+    private long consumed;
+
+    /**
+     * A numbered series of files, as Compile reads them.
+     */
+    private static class Corpus {
+
+        final String prefix;
+        final List<String> files = new ArrayList<>();
+        long tokens;
+
+        Corpus(String prefix) throws IOException {
+            this.prefix = prefix;
+            for (int i = 0; new File(prefix + i).exists(); i++)
+                files.add(prefix + i);
+            for (String file : files)
+                tokens += lex(file);
+        }
+    }
+
+    /**
+     * One operation of a benchmark.
+     */
+    private interface Operation {
+
+        /**
+         * @return A value depending on the work done, so that it cannot be optimised away
+         */
+        long run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        CompilerBenchmark bench = new CompilerBenchmark();
+        List<String> benchmarks = new ArrayList<>();
+        List<String> sizes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-warmup") && i + 1 < args.length)
+                bench.warmups = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-iterations") && i + 1 < args.length)
+                bench.iterations = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-time") && i + 1 < args.length)
+                bench.iterationNanos = Long.parseLong(args[++i]) * 1_000_000L;
+            else if (Arrays.asList(BENCHMARKS).contains(args[i]))
+                benchmarks.add(args[i]);
+            else if (Arrays.asList(SIZES).contains(args[i]))
+                sizes.add(args[i]);
+            else {
+                System.err.println("usage: CompilerBenchmark [-warmup n] [-iterations n] [-time ms] [lexer|parser|validate|compile ...] [small|medium|large ...]");
+                System.exit(1);
+            }
+        }
+        if (benchmarks.isEmpty())
+            benchmarks.addAll(Arrays.asList(BENCHMARKS));
+        if (sizes.isEmpty())
+            sizes.addAll(Arrays.asList(SIZES));
+
+        bench.scratch = Files.createTempDirectory("benchmark");
+        try {
+            System.out.printf("%-8s %-7s %9s %10s %13s %13s %12s %14s %9s%n", "Benchmark", "Size", "Files",
+                    "Tokens", "ms/op", "error", "Mtokens/s", "B/op", "MB/s");
+            for (String size : sizes) {
+                Corpus corpus = bench.corpus(size);
+                for (String benchmark : benchmarks)
+                    bench.run(benchmark, size, corpus);
+            }
+        } finally {
+            bench.deleteScratch();
+        }
+    }
+
+    private Corpus corpus(String size) throws IOException {
+        if (size.equals("small"))
+            return new Corpus("Programs Folder" + File.separator + "program");
+
+        // Separators go on lines of their own, as a line may end in a comment
+        String body = body("Programs Folder/program0") + "\n;\n" + body("Programs Folder/program6");
+        Path dir = Files.createDirectories(scratch.resolve(size));
+        int files = size.equals("medium") ? 10 : 1;
+        int copies = size.equals("medium") ? 500 : 20000;
+        StringBuilder program = new StringBuilder("begin\n");
+        for (int i = 0; i < copies; i++)
+            program.append(i == 0 ? "" : "\n;\n").append(body);
+        program.append("\nend\n");
+        for (int i = 0; i < files; i++)
+            Files.writeString(dir.resolve("program" + i), program);
+
+        Corpus corpus = new Corpus(dir.resolve("program").toString());
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        new SyntaxAnalyser(corpus.files.get(0)).parse(new PrintStream(errors), new PrintStreamSink(discard));
+        if (errors.size() > 0)
+            throw new IllegalStateException("the " + size + " corpus does not parse:\n" + errors);
+        return corpus;
+    }
+
+    /**
+     * @return The statements of a program, between its first begin and its last end
+     */
+    private static String body(String file) throws IOException {
+        String text = Files.readString(Paths.get(file));
+        return text.substring(text.indexOf("begin") + 5, text.lastIndexOf("end")).trim();
+    }
+
+    private void run(String benchmark, String size, Corpus corpus) throws IOException {
+        Operation op;
+        switch (benchmark) {
+            case "lexer":
+                op = () -> {
+                    long tokens = 0;
+                    for (String file : corpus.files)
+                        tokens += lex(file);
+                    return tokens;
+                };
+                break;
+            case "parser":
+                op = () -> {
+                    PrintStreamSink sink = new PrintStreamSink(discard);
+                    for (String file : corpus.files)
+                        new SyntaxAnalyser(file).parse(discard, sink);
+                    return corpus.files.size();
+                };
+                break;
+            case "validate":
+                op = () -> {
+                    long valid = 0;
+                    for (String file : corpus.files)
+                        valid += new SyntaxAnalyser(file).validate(discard) ? 1 : 0;
+                    return valid;
+                };
+                break;
+            default:
+                File trace = scratch.resolve("trace.txt").toFile();
+                File results = scratch.resolve("res.txt").toFile();
+                op = () -> {
+                    // Buffered as System.out is; Compile leaves res.txt unbuffered
+                    try (PrintStream traceOut = new PrintStream(new BufferedOutputStream(new FileOutputStream(trace)));
+                         PrintStream out = new PrintStream(new FileOutputStream(results))) {
+                        PrintStreamSink sink = new PrintStreamSink(traceOut);
+                        int n = new Compile().compileAll(corpus.prefix, out, sink, traceOut);
+                        sink.flush();
+                        return n + trace.length();
+                    }
+                };
+                break;
+        }
+
+        for (int i = 0; i < warmups; i++)
+            consumed += iteration(op)[0];
+
+        double[] nanosPerOp = new double[iterations];
+        long ops = 0, nanos = 0, allocated = 0, collections = 0, collectionMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections -= gc.getCollectionCount();
+            collectionMillis -= gc.getCollectionTime();
+        }
+        for (int i = 0; i < iterations; i++) {
+            long[] result = iteration(op);
+            consumed += result[0];
+            ops += result[1];
+            nanos += result[2];
+            allocated += result[3];
+            nanosPerOp[i] = (double) result[2] / result[1];
+        }
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += gc.getCollectionCount();
+            collectionMillis += gc.getCollectionTime();
+        }
+
+        double mean = (double) nanos / ops;
+        System.out.printf("%-8s %-7s %9d %10d %13.3f %13s %12.2f %14d %9.1f   (gc: %d, %d ms)%n",
+                benchmark, size, corpus.files.size(), corpus.tokens, mean / 1e6,
+                String.format("+- %.3f", error(nanosPerOp) / 1e6), corpus.tokens * 1e3 / mean,
+                allocated / ops, allocated * 1e3 / nanos, collections, collectionMillis);
+    }
+
+    /**
+     * Runs operations for the iteration time.
+     *
+     * @return The sum of the operations' results, the number of operations, the nanoseconds they
+     * took and the bytes the thread allocated meanwhile
+     */
+    private long[] iteration(Operation op) throws IOException {
+        long thread = Thread.currentThread().getId();
+        long sum = 0, ops = 0;
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime(), elapsed;
+        do {
+            sum += op.run();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        return new long[]{sum, ops, elapsed, allocated};
+    }
+
+    /**
+     * @return Half the width of the 99.9% confidence interval of the mean of some measurements
+     */
+    private static double error(double[] samples) {
+        int n = samples.length;
+        if (n < 2)
+            return Double.NaN;
+        double mean = 0;
+        for (double x : samples)
+            mean += x / n;
+        double squares = 0;
+        for (double x : samples)
+            squares += (x - mean) * (x - mean);
+        return t9995(n - 1) * Math.sqrt(squares / (n - 1)) / Math.sqrt(n);
+    }
+
+    /**
+     * The 0.9995 quantiles of Student's t distribution for 1 to 30 degrees of freedom.
+     */
+    private static final double[] T_9995 = {
+            636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+            4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+            3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646};
+
+    /**
+     * @return The 0.9995 quantile of Student's t distribution, which bounds a 99.9% confidence
+     * interval, from the table up to 30 degrees of freedom and the Cornish-Fisher expansion about
+     * the normal quantile past it
+     */
+    private static double t9995(int df) {
+        if (df <= T_9995.length)
+            return T_9995[df - 1];
+        double z = 3.290527;
+        double z2 = z * z;
+        double v = df;
+        return z + z * (z2 + 1) / (4 * v)
+                + z * ((5 * z2 + 16) * z2 + 3) / (96 * v * v)
+                + z * (((3 * z2 + 19) * z2 + 17) * z2 - 15) / (384 * v * v * v);
+    }
+
+    /**
+     * @return The number of tokens in a file, EOF included
+     */
+    private static long lex(String file) throws IOException {
+        LexicalAnalyser lex = new LexicalAnalyser(file);
+        long tokens = 1;
+        while (lex.getNextToken().symbol != Token.eofSymbol)
+            tokens++;
+        return tokens;
+    }
+
+    private void deleteScratch() throws IOException {
+        try (Stream<Path> paths = Files.walk(scratch)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+}
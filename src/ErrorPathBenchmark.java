@@ -0,0 +1,94 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Measures the cost of the syntax error path.
+ * <p>
+ * The first part unwinds a recursion of the given depth, wrapping the error at every level as
+ * SyntaxAnalyser does, once with eagerly formatted exceptions that capture a stack trace and once
+ * with the lazy, stackless ones, from the first error at the bottom, as acceptTerminal makes it,
+ * to the last. The second part times whole parses of a program whose error sits
+ * at the bottom of deeply nested if statements.
+ * <p>
+ * Usage: ErrorPathBenchmark [depth [iterations]]
+ */
+public class ErrorPathBenchmark {
+
+    private static final String FILE_NAME = "Programs Folder/program0";
+
+    public static void main(String[] args) throws IOException {
+        int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+
+        // Warm up both paths before timing either
+        time(true, depth, iterations / 10);
+        time(false, depth, iterations / 10);
+        double eager = time(true, depth, iterations);
+        double lazy = time(false, depth, iterations);
+        System.out.printf("error chain of depth %d: eager %.1f us, lazy %.1f us (%.1fx)%n",
+                depth, eager / 1000, lazy / 1000, eager / lazy);
+
+        File program = File.createTempFile("broken", ".prog");
+        program.deleteOnExit();
+        try (FileWriter writer = new FileWriter(program)) {
+            writer.write("begin\n");
+            for (int i = 0; i < depth / 8; i++)
+                writer.write("if x = 1 then\n");
+            writer.write("x := ;\n");
+            for (int i = 0; i < depth / 8; i++)
+                writer.write("end if\n");
+            writer.write("end\n");
+        }
+
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        PrintStreamSink sink = new PrintStreamSink(discard);
+        int parses = Math.max(iterations / 10, 1);
+        for (int i = 0; i < parses; i++)
+            new SyntaxAnalyser(program.getPath()).parse(discard, sink);
+        long start = System.nanoTime();
+        for (int i = 0; i < parses; i++)
+            new SyntaxAnalyser(program.getPath()).parse(discard, sink);
+        System.out.printf("parse of broken program nested %d deep: %.1f us%n",
+                depth / 8, (System.nanoTime() - start) / 1000.0 / parses);
+    }
+
+    /**
+     * @return the mean nanoseconds to build and report one error chain
+     */
+    private static double time(boolean eager, int depth, int iterations) {
+        long chars = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            chars += descend(eager, depth).toTraceString().length();
+        long elapsed = System.nanoTime() - start;
+        if (chars == 0)
+            System.out.println();
+        return (double) elapsed / iterations;
+    }
+
+    /**
+     * Recurses to the given depth, throws, and wraps the error on the way back up.
+     */
+    private static CompilationException descend(boolean eager, int depth) {
+        try {
+            if (depth == 0) {
+                if (eager)
+                    throw new CompilationException("line 0 in " + FILE_NAME + ":\n\t\t\t- Expected token(s) <"
+                            + Token.getName(Token.identifier) + "> but found (" + Token.getName(Token.endSymbol) + ").\n");
+                throw new CompilationException(Token.identifier, Token.endSymbol, 0, FILE_NAME);
+            }
+            throw descend(eager, depth - 1);
+        } catch (CompilationException e) {
+            if (depth == 0)
+                return e;
+            if (eager)
+                return new CompilationException("line " + depth + " in " + FILE_NAME + ":\n\t\t\t- Expected token(s) "
+                        + "<statement>" + " but found (" + Token.getName(Token.endSymbol) + ").\n", e);
+            return new CompilationException("<statement>", Token.endSymbol, depth, FILE_NAME, e);
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event for the compilation of one file by Compile, lasting from opening the
+ * file to the end of its parse. Disabled unless a recording turns it on.
+ */
+@Name("recogniser.FileCompiled")
+@Label("File Compiled")
+@Category({"Recursive Descent Recogniser"})
+@Description("The compilation of one program file")
+@Enabled(false)
+@StackTrace(false)
+class FileCompiledEvent extends jdk.jfr.Event {
+
+    @Label("File")
+    String fileName;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Tokens")
+    @Description("The tokens read, or -1 if the parser does not count them")
+    long tokens;
+
+    @Label("Success")
+    boolean success;
+
+}
@@ -11,8 +11,13 @@ public class Generate extends AbstractGenerate {
 
     @Override
     public void reportError(Token token, String explanatoryMessage) throws CompilationException {
-        System.out.println(explanatoryMessage);
-        throw new CompilationException(explanatoryMessage);
+        reportError(token, new CompilationException(explanatoryMessage, false));
+    }
+
+    @Override
+    public void reportError(Token token, CompilationException error) throws CompilationException {
+        sink.message(error.getMessage());
+        throw error;
     }
 
 }
@@ -0,0 +1,381 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A context free grammar read from a text description, with the FIRST and FOLLOW sets of its
+ * nonterminals and the LL(1) parse table generated from them.
+ * <p>
+ * Each line of the description is a rule, a nonterminal followed by "::=" and its alternatives
+ * separated by '|'. An empty alternative derives nothing. Terminals are token names from Token in
+ * single quotes, such as 'begin' or 'IDENTIFIER'. A nonterminal in angle brackets, such as
+ * &lt;statement list&gt;, appears in the trace; one written as a bare word is only there to shape
+ * the grammar and does not. The first rule is the start symbol. Lines starting with '#' are
+ * comments.
+ * <p>
+ * Symbols are ints: terminals are the Token constants, from 0 up to terminalCount(), and
+ * nonterminal n is terminalCount() + n.
+ */
+public class Grammar {
+
+    private static final int TERMINALS = countTerminals();
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Boolean> traced = new ArrayList<>();
+    private final HashMap<String, Integer> nonterminalIds = new HashMap<>();
+    private final List<Integer> lhs = new ArrayList<>();
+    private final List<int[]> rhs = new ArrayList<>();
+
+    private boolean[] nullable;
+    private boolean[][] first;
+    private boolean[][] follow;
+    private int[][] table;
+    private final List<String> conflicts = new ArrayList<>();
+
+    /**
+     * @param description The rules of the grammar
+     * @throws IllegalArgumentException if the description cannot be read, or uses a nonterminal
+     *                                  it has no rule for
+     */
+    public Grammar(String description) {
+        List<String> defined = new ArrayList<>();
+        for (String line : description.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            int arrow = line.indexOf("::=");
+            if (arrow < 0)
+                throw new IllegalArgumentException("no ::= in rule: " + line);
+            int n = nonterminal(line.substring(0, arrow).trim());
+            defined.add(names.get(n));
+            for (String alternative : line.substring(arrow + 3).split("\\|", -1)) {
+                lhs.add(n);
+                rhs.add(symbols(alternative));
+            }
+        }
+        for (String name : names)
+            if (!defined.contains(name))
+                throw new IllegalArgumentException("no rule for " + name);
+
+        computeFirst();
+        computeFollow();
+        buildTable();
+    }
+
+    private static int countTerminals() {
+        int n = 1;
+        while (!Token.getName(n).equals("UNKNOWN"))
+            n++;
+        return n;
+    }
+
+    /**
+     * @return The id of a nonterminal, given its name as written in the description
+     */
+    private int nonterminal(String written) {
+        boolean inTrace = written.startsWith("<");
+        Integer id = nonterminalIds.get(written);
+        if (id == null) {
+            id = names.size();
+            names.add(written);
+            traced.add(inTrace);
+            nonterminalIds.put(written, id);
+        }
+        return id;
+    }
+
+    private int[] symbols(String alternative) {
+        List<Integer> symbols = new ArrayList<>();
+        int i = 0;
+        while (i < alternative.length()) {
+            char c = alternative.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                int close = alternative.indexOf('\'', i + 1);
+                if (close < 0)
+                    throw new IllegalArgumentException("unclosed quote in: " + alternative);
+                symbols.add(terminal(alternative.substring(i + 1, close)));
+                i = close + 1;
+            } else {
+                int end;
+                if (c == '<') {
+                    end = alternative.indexOf('>', i) + 1;
+                    if (end == 0)
+                        throw new IllegalArgumentException("unclosed < in: " + alternative);
+                } else {
+                    end = i;
+                    while (end < alternative.length() && !Character.isWhitespace(alternative.charAt(end)))
+                        end++;
+                }
+                symbols.add(TERMINALS + nonterminal(alternative.substring(i, end)));
+                i = end;
+            }
+        }
+        int[] result = new int[symbols.size()];
+        for (int k = 0; k < result.length; k++)
+            result[k] = symbols.get(k);
+        return result;
+    }
+
+    private static int terminal(String name) {
+        for (int t = 1; t < TERMINALS; t++)
+            if (Token.getName(t).equals(name))
+                return t;
+        throw new IllegalArgumentException("no token named " + name);
+    }
+
+    private void computeFirst() {
+        int n = names.size();
+        nullable = new boolean[n];
+        first = new boolean[n][TERMINALS];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < rhs.size(); p++) {
+                int a = lhs.get(p);
+                changed |= addFirst(rhs.get(p), 0, first[a]);
+                if (!nullable[a] && nullable(rhs.get(p), 0)) {
+                    nullable[a] = true;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds FIRST of the symbols from a point in a production to a set.
+     *
+     * @return true if the set grew
+     */
+    private boolean addFirst(int[] symbols, int from, boolean[] set) {
+        boolean changed = false;
+        for (int i = from; i < symbols.length; i++) {
+            int s = symbols[i];
+            if (s < TERMINALS) {
+                changed |= add(set, s);
+                return changed;
+            }
+            boolean[] f = first[s - TERMINALS];
+            for (int t = 0; t < TERMINALS; t++)
+                if (f[t])
+                    changed |= add(set, t);
+            if (!nullable[s - TERMINALS])
+                return changed;
+        }
+        return changed;
+    }
+
+    /**
+     * @return true if the symbols from a point in a production can derive nothing
+     */
+    private boolean nullable(int[] symbols, int from) {
+        for (int i = from; i < symbols.length; i++)
+            if (symbols[i] < TERMINALS || !nullable[symbols[i] - TERMINALS])
+                return false;
+        return true;
+    }
+
+    private static boolean add(boolean[] set, int t) {
+        if (set[t])
+            return false;
+        set[t] = true;
+        return true;
+    }
+
+    private void computeFollow() {
+        follow = new boolean[names.size()][TERMINALS];
+        follow[0][Token.eofSymbol] = true;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < rhs.size(); p++) {
+                int[] symbols = rhs.get(p);
+                for (int i = 0; i < symbols.length; i++) {
+                    if (symbols[i] < TERMINALS)
+                        continue;
+                    boolean[] set = follow[symbols[i] - TERMINALS];
+                    changed |= addFirst(symbols, i + 1, set);
+                    if (nullable(symbols, i + 1)) {
+                        boolean[] inherited = follow[lhs.get(p)];
+                        for (int t = 0; t < TERMINALS; t++)
+                            if (inherited[t])
+                                changed |= add(set, t);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the table from FIRST and FOLLOW. Where two productions want the same cell, the one
+     * that derives something wins, as the loop in a recursive descent parser would keep going,
+     * and the conflict is noted. The empty production of a nonterminal is then also taken on
+     * every token nothing else is, so that an error is found where the recursive descent parser
+     * would find it, by the terminal that is expected next rather than on entry to the loop.
+     */
+    private void buildTable() {
+        table = new int[names.size()][TERMINALS];
+        for (int[] row : table)
+            Arrays.fill(row, -1);
+
+        for (int p = 0; p < rhs.size(); p++) {
+            int a = lhs.get(p);
+            boolean[] set = new boolean[TERMINALS];
+            addFirst(rhs.get(p), 0, set);
+            if (nullable(rhs.get(p), 0))
+                for (int t = 0; t < TERMINALS; t++)
+                    set[t] |= follow[a][t];
+            for (int t = 0; t < TERMINALS; t++)
+                if (set[t])
+                    enter(a, t, p);
+        }
+
+        for (int p = 0; p < rhs.size(); p++) {
+            if (!nullable(rhs.get(p), 0))
+                continue;
+            int[] row = table[lhs.get(p)];
+            for (int t = 0; t < TERMINALS; t++)
+                if (row[t] < 0)
+                    row[t] = p;
+        }
+    }
+
+    private void enter(int a, int t, int p) {
+        int existing = table[a][t];
+        if (existing < 0) {
+            table[a][t] = p;
+            return;
+        }
+        conflicts.add(names.get(a) + " on '" + Token.getName(t) + "': " + production(existing) + " or " + production(p));
+        if (nullable(rhs.get(existing), 0) && !nullable(rhs.get(p), 0))
+            table[a][t] = p;
+    }
+
+    /**
+     * @return The number of terminal symbols, and so the width of the table
+     */
+    public static int terminalCount() {
+        return TERMINALS;
+    }
+
+    public int nonterminalCount() {
+        return names.size();
+    }
+
+    public String name(int nonterminal) {
+        return names.get(nonterminal);
+    }
+
+    /**
+     * @return true if a nonterminal appears in the trace
+     */
+    public boolean traced(int nonterminal) {
+        return traced.get(nonterminal);
+    }
+
+    public int productionCount() {
+        return rhs.size();
+    }
+
+    /**
+     * @return The nonterminal a production is for
+     */
+    public int lhs(int production) {
+        return lhs.get(production);
+    }
+
+    /**
+     * @return The symbols of the right hand side of a production
+     */
+    public int[] rhs(int production) {
+        return rhs.get(production).clone();
+    }
+
+    /**
+     * @return The parse table, indexed by nonterminal and then terminal, holding the production
+     * to expand or -1 for a syntax error
+     */
+    public int[][] table() {
+        return table;
+    }
+
+    /**
+     * @return A description of each LL(1) conflict and how it was settled
+     */
+    public List<String> conflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return The terminals in FIRST of a nonterminal
+     */
+    public boolean[] first(int nonterminal) {
+        return first[nonterminal].clone();
+    }
+
+    /**
+     * @return The terminals in FOLLOW of a nonterminal
+     */
+    public boolean[] follow(int nonterminal) {
+        return follow[nonterminal].clone();
+    }
+
+    public boolean nullable(int nonterminal) {
+        return nullable[nonterminal];
+    }
+
+    /**
+     * @return A production as it would be written in a description
+     */
+    public String production(int p) {
+        StringBuilder text = new StringBuilder(names.get(lhs.get(p))).append(" ::=");
+        for (int s : rhs.get(p))
+            text.append(' ').append(s < TERMINALS ? "'" + Token.getName(s) + "'" : names.get(s - TERMINALS));
+        return text.toString();
+    }
+
+    private static String set(boolean[] set) {
+        StringBuilder text = new StringBuilder("{");
+        for (int t = 0; t < set.length; t++)
+            if (set[t])
+                text.append(text.length() > 1 ? ", " : "").append(Token.getName(t));
+        return text.append('}').toString();
+    }
+
+    /**
+     * Usage: Grammar [description file]
+     * <p>
+     * Prints the FIRST and FOLLOW sets, the conflicts and the parse table of a grammar, by
+     * default the one TableSyntaxAnalyser parses with.
+     */
+    public static void main(String[] args) throws IOException {
+        Grammar grammar = (args.length > 0)
+                ? new Grammar(new String(Files.readAllBytes(Paths.get(args[0]))))
+                : TableSyntaxAnalyser.GRAMMAR;
+
+        for (int p = 0; p < grammar.productionCount(); p++)
+            System.out.println(p + ": " + grammar.production(p));
+        System.out.println();
+        for (int n = 0; n < grammar.nonterminalCount(); n++) {
+            System.out.println(grammar.name(n) + (grammar.nullable(n) ? " (nullable)" : ""));
+            System.out.println("    FIRST  " + set(grammar.first[n]));
+            System.out.println("    FOLLOW " + set(grammar.follow[n]));
+        }
+        System.out.println();
+        for (String conflict : grammar.conflicts())
+            System.out.println("conflict: " + conflict);
+        System.out.println();
+        for (int n = 0; n < grammar.nonterminalCount(); n++) {
+            StringBuilder row = new StringBuilder(grammar.name(n)).append(':');
+            for (int t = 1; t < TERMINALS; t++)
+                row.append(' ').append(grammar.table[n][t]);
+            System.out.println(row);
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Gives each distinct name a number, its id, so that names can be compared and looked up as
+ * ints rather than as Strings. Ids start at 1 and go up by one for each new name, and a name
+ * keeps its id for as long as the table lasts; 0 is never an id. The table also holds the symbol
+ * of each name, so that a lexer finds out whether a word is reserved in the same lookup.
+ * <p>
+ * The table is an open-addressing hash table of ids, probed linearly and never more than half
+ * full, with each name, its hash and its symbol kept in arrays indexed by id. A name is looked
+ * up straight from a range of a character buffer, so a name that is already in the table does
+ * not become a String again.
+ * <p>
+ * One table can be shared by lexers on any number of threads. Looking a name up takes no lock:
+ * the name, hash and symbol of a new id are written before the id is put in its slot with
+ * release semantics, and slots are read with acquire semantics. Adding a name takes the table's
+ * lock, and when the table grows the arrays are copied into a new set that replaces the old in
+ * one step, so a reader only ever sees one whole set. The text of an id read from a token made on
+ * another thread is always there, as the token was handed over after the id was added.
+ */
+public class IdentifierTable {
+
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /**
+     * The slots and the names, hashes and symbols of the ids in them. Only the slots of the
+     * newest set change once it is made; the arrays of ids have room for every id the slots can
+     * take.
+     */
+    private static final class Slots {
+
+        final int[] slots;
+        final String[] names;
+        final int[] hashes;
+        final int[] symbols;
+        final int shift;
+
+        Slots(int bits) {
+            slots = new int[1 << bits];
+            names = new String[(1 << (bits - 1)) + 1];
+            hashes = new int[names.length];
+            symbols = new int[names.length];
+            shift = 32 - bits;
+        }
+    }
+
+    private volatile Slots table;
+    private volatile int size;
+
+    public IdentifierTable() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity The number of names to make room for initially
+     */
+    public IdentifierTable(int capacity) {
+        int bits = 4;
+        while ((1 << (bits - 1)) < capacity && bits < 30)
+            bits++;
+        table = new Slots(bits);
+    }
+
+    /**
+     * Looks up a name held in part of a character buffer, adding it if it is new.
+     *
+     * @param text   The buffer holding the name
+     * @param start  The offset of the name in the buffer
+     * @param length The length of the name
+     * @return The id of the name
+     */
+    public int intern(char[] text, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++)
+            hash = 31 * hash + text[i];
+        int id = find(table, text, start, length, hash);
+        if (id != 0)
+            return id;
+        synchronized (this) {
+            id = find(table, text, start, length, hash);
+            return (id != 0) ? id : add(new String(text, start, length), hash);
+        }
+    }
+
+    /**
+     * Looks up a name, adding it if it is new.
+     *
+     * @param name The name
+     * @return The id of the name
+     */
+    public int intern(String name) {
+        int hash = name.hashCode();
+        int id = find(table, name, hash);
+        if (id != 0)
+            return id;
+        synchronized (this) {
+            id = find(table, name, hash);
+            return (id != 0) ? id : add(name, hash);
+        }
+    }
+
+    /**
+     * Looks up a name without adding it.
+     *
+     * @param name The name
+     * @return The id of the name, or 0 if it is not in the table
+     */
+    public int lookup(String name) {
+        return find(table, name, name.hashCode());
+    }
+
+    private static int find(Slots t, char[] text, int start, int length, int hash) {
+        int mask = t.slots.length - 1;
+        for (int i = (hash * 0x9e3779b9) >>> t.shift; ; i = (i + 1) & mask) {
+            int id = (int) SLOT.getAcquire(t.slots, i);
+            if (id == 0)
+                return 0;
+            if (t.hashes[id] == hash && matches(t.names[id], text, start, length))
+                return id;
+        }
+    }
+
+    private static int find(Slots t, String name, int hash) {
+        int mask = t.slots.length - 1;
+        for (int i = (hash * 0x9e3779b9) >>> t.shift; ; i = (i + 1) & mask) {
+            int id = (int) SLOT.getAcquire(t.slots, i);
+            if (id == 0)
+                return 0;
+            if (t.hashes[id] == hash && t.names[id].equals(name))
+                return id;
+        }
+    }
+
+    private static boolean matches(String name, char[] text, int start, int length) {
+        if (name.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (name.charAt(i) != text[start + i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Adds a name known not to be in the table. Called holding the lock.
+     */
+    private int add(String name, int hash) {
+        Slots t = table;
+        int id = size + 1;
+        if (id == t.names.length) {
+            t = grow(t);
+            table = t;
+        }
+        t.names[id] = name;
+        t.hashes[id] = hash;
+        t.symbols[id] = LexicalAnalyser.reservedWordSymbol(name);
+        place(t, id, hash);
+        size = id;
+        return id;
+    }
+
+    /**
+     * Puts an id in the first free slot for its hash, after everything else about it is in place.
+     */
+    private static void place(Slots t, int id, int hash) {
+        int mask = t.slots.length - 1;
+        int i = (hash * 0x9e3779b9) >>> t.shift;
+        while (t.slots[i] != 0)
+            i = (i + 1) & mask;
+        SLOT.setRelease(t.slots, i, id);
+    }
+
+    /**
+     * @return A set of arrays twice the size holding every id of the given set
+     */
+    private static Slots grow(Slots t) {
+        int bits = 33 - t.shift;
+        if (bits > 30)
+            throw new IllegalStateException("too many names for an IdentifierTable");
+        Slots grown = new Slots(bits);
+        System.arraycopy(t.names, 0, grown.names, 0, t.names.length);
+        System.arraycopy(t.hashes, 0, grown.hashes, 0, t.hashes.length);
+        System.arraycopy(t.symbols, 0, grown.symbols, 0, t.symbols.length);
+        for (int id = 1; id < t.names.length; id++)
+            place(grown, id, grown.hashes[id]);
+        return grown;
+    }
+
+    /**
+     * @param id The id of a name
+     * @return The name
+     */
+    public String name(int id) {
+        return table.names[id];
+    }
+
+    /**
+     * @param id The id of a name
+     * @return The symbol of the name, the reserved word it spells or else Token.identifier
+     */
+    public int symbol(int id) {
+        return table.symbols[id];
+    }
+
+    /**
+     * @return The number of names in the table, which is also the highest id
+     */
+    public int size() {
+        return size;
+    }
+
+}
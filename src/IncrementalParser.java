@@ -0,0 +1,407 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Keeps the tokens and parse structure of a program in memory and brings them up to date
+ * after each edit, for editors that check a program on every keystroke.
+ * <p>
+ * An edit is re-lexed from the token before it until the new tokens fall back into step with
+ * the old ones. If only the text of tokens changed, nothing is reparsed. Otherwise the smallest
+ * &lt;statement&gt; around the changed tokens is reparsed on its own, and failing that the
+ * statements of its &lt;statement list&gt; from that one up to the first unchanged statement that
+ * still starts at the same token. Each enclosing statement and list is tried in turn until the
+ * new parse ends at exactly the same token as the old one, and only then does it fall back to
+ * parsing the whole program. A program that failed to parse last time is always parsed whole.
+ * <p>
+ * The tokens and the parse events are both kept in gap buffers, so the work for an edit near the
+ * previous one does not grow with the size of the program.
+ * <p>
+ * Character positions count each line end as one character, so the text should use '\n'.
+ */
+public class IncrementalParser {
+
+    private final String fileName;
+    private final StringBuilder source;
+    private final TokenStream tokens = new TokenStream();
+    private ParseEventLog events;
+    private boolean valid;
+    private String errors = "";
+    private int reparsedTokens;
+
+    /**
+     * Parses a program in full.
+     *
+     * @param fileName The name of the program, for error messages
+     * @param text     The text of the program
+     * @throws IOException
+     */
+    public IncrementalParser(String fileName, CharSequence text) throws IOException {
+        this.fileName = fileName;
+        this.source = new StringBuilder(text);
+        parseAll();
+    }
+
+    /**
+     * @return true if the program parsed successfully after the last edit
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return The compilation errors of the last parse, as written to res.txt, or an empty string
+     */
+    public String getErrors() {
+        return errors;
+    }
+
+    public TokenStream getTokens() {
+        return tokens;
+    }
+
+    /**
+     * @return The number of tokens parsed again by the last edit
+     */
+    public int getReparsedTokens() {
+        return reparsedTokens;
+    }
+
+    /**
+     * Writes the trace of the current parse, exactly as a full parse of the text would.
+     *
+     * @param sink The sink to write to
+     */
+    public void replay(TraceSink sink) {
+        events.replay(sink, tokens);
+    }
+
+    private void parseAll() throws IOException {
+        LexicalAnalyser lex = new LexicalAnalyser(new SourceReader(source, 0));
+        SyntaxAnalyser syn = new SyntaxAnalyser(lex, fileName);
+        syn.setTokenStream(tokens);
+        events = new ParseEventLog();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        syn.parse(new PrintStream(err), events);
+
+        valid = events.succeeded();
+        errors = err.toString();
+        reparsedTokens = tokens.size();
+        // Accepting EOF reads one more EOF after it
+        int n = tokens.size();
+        if (n >= 2 && tokens.symbol(n - 2) == Token.eofSymbol)
+            tokens.truncate(n - 1);
+    }
+
+    /**
+     * Replaces part of the program text and brings the parse up to date.
+     *
+     * @param from The character position of the start of the text to replace
+     * @param to   The character position just after the text to replace
+     * @param text The new text
+     * @return true if the program now parses successfully
+     * @throws IOException
+     */
+    public boolean edit(int from, int to, CharSequence text) throws IOException {
+        int delta = text.length() - (to - from);
+        source.replace(from, to, text.toString());
+        if (!valid) {
+            parseAll();
+            return valid;
+        }
+
+        // Re-lex from the token before the first one the edit could touch
+        int n = tokens.size();
+        int a = Math.max(firstEndingAtOrAfter(from) - 1, 0);
+        TokenStream relexed = new TokenStream(16);
+        LexicalAnalyser lex = new LexicalAnalyser(new SourceReader(source, tokens.offset(a)));
+        lex.setPosition(tokens.offset(a), tokens.line(a));
+
+        // ... until a new token starts where an old one past the edit now starts
+        int j = a;
+        int lineDelta = 0;
+        while (true) {
+            lex.getNextToken(relexed);
+            int k = relexed.size() - 1;
+            int start = relexed.offset(k);
+            while (j < n && (tokens.offset(j) < to || tokens.offset(j) + delta < start))
+                j++;
+            if (j < n && tokens.offset(j) + delta == start) {
+                lineDelta = relexed.line(k) - tokens.line(j);
+                relexed.truncate(k);
+                break;
+            }
+            if (relexed.symbol(k) == Token.eofSymbol) {
+                j = n;
+                break;
+            }
+        }
+
+        // Narrow the change to the tokens whose symbols actually differ
+        int added = relexed.size();
+        int prefix = 0;
+        while (prefix < added && a + prefix < j && relexed.symbol(prefix) == tokens.symbol(a + prefix))
+            prefix++;
+        int suffix = 0;
+        while (suffix < added - prefix && suffix < j - a - prefix
+                && relexed.symbol(added - 1 - suffix) == tokens.symbol(j - 1 - suffix))
+            suffix++;
+        int lo = a + prefix;
+        int hi = j - 1 - suffix;
+        int tokenDelta = added - (j - a);
+
+        tokens.replace(a, j, relexed, delta, lineDelta);
+        if (hi < lo && tokenDelta == 0) {
+            reparsedTokens = 0;
+            return true;
+        }
+
+        // Work outwards from the first changed token, whose events still hold the old token indices
+        int first = (hi < lo) ? lo - 1 : lo;
+        int last = Math.max(hi, first);
+        int e = (first >= 0) ? events.findTerminal(first) : -1;
+        while (e >= 0) {
+            if (inStatementList(e)) {
+                try {
+                    if (events.op(e) == ParseEventLog.BEGIN && reparse(e, last, tokenDelta))
+                        return true;
+                } catch (CompilationException ex) {
+                    // Try the statements around it
+                }
+                try {
+                    if (reparseStatements(e, last, tokenDelta))
+                        return true;
+                } catch (CompilationException ex) {
+                    // Try the statement holding the list
+                }
+                e = events.parent(e);
+            }
+            e = events.parent(e);
+        }
+
+        parseAll();
+        return valid;
+    }
+
+    /**
+     * @return true if an event is a statement or semicolon of a statement list
+     */
+    private boolean inStatementList(int e) {
+        if (events.op(e) == ParseEventLog.BEGIN)
+            return events.name(e).equals("<statement>");
+        // Only a semicolon can follow a statement directly
+        return events.op(e) == ParseEventLog.TOKEN && e > 0 && events.op(e - 1) == ParseEventLog.END
+                && events.name(e - 1).equals("<statement>");
+    }
+
+    /**
+     * Reparses a statement on its own, keeping the new parse if it ends where the old one did.
+     *
+     * @param begin      The index of the BEGIN event of the statement
+     * @param last       The index, before the edit, of the last changed token
+     * @param tokenDelta The number of tokens the edit added
+     * @return true if the new parse was kept
+     */
+    private boolean reparse(int begin, int last, int tokenDelta) throws IOException, CompilationException {
+        int end = events.matchingEnd(begin);
+        if (events.pos(end) <= last)
+            return false;
+        int firstToken = events.pos(begin);
+        int expectedEnd = events.pos(end) + tokenDelta;
+        ParseEventLog part = new ParseEventLog(events, firstToken);
+        SyntaxAnalyser syn = new SyntaxAnalyser((TokenSource) null, fileName);
+        if (syn.reparse("<statement>", tokens, firstToken, part) != expectedEnd)
+            return false;
+        events.replace(begin, end + 1, part, tokenDelta);
+        reparsedTokens = expectedEnd - firstToken;
+        return true;
+    }
+
+    /**
+     * Reparses the statements of a statement list from the one holding the first changed token,
+     * stopping at the first statement after the change that starts at the same token as before.
+     * The list itself is never searched for, as at the top level it may span the whole program.
+     *
+     * @param e          A statement, or a semicolon after one, in the list
+     * @param last       The index, before the edit, of the last changed token
+     * @param tokenDelta The number of tokens the edit added
+     * @return true if the new parse was kept
+     */
+    private boolean reparseStatements(int e, int last, int tokenDelta) throws IOException, CompilationException {
+        int from = (events.op(e) == ParseEventLog.TOKEN) ? events.matchingBegin(e - 1) : e;
+
+        // The last old statement passed so far, and the one after it or -1
+        int[] sibling = {from, nextSibling(from)};
+        IntPredicate resync = token -> {
+            while (sibling[1] >= 0 && events.pos(sibling[1]) + tokenDelta < token) {
+                sibling[0] = sibling[1];
+                sibling[1] = nextSibling(sibling[1]);
+            }
+            return sibling[1] >= 0 && events.pos(sibling[1]) > last && events.pos(sibling[1]) + tokenDelta == token;
+        };
+
+        int firstToken = events.pos(from);
+        ParseEventLog part = new ParseEventLog(events, firstToken);
+        SyntaxAnalyser syn = new SyntaxAnalyser((TokenSource) null, fileName);
+        int next = syn.reparseStatements(tokens, firstToken, resync, part);
+        int to;
+        // The list also stops where no semicolon follows a statement, which is not a resync
+        if (tokens.symbol(next - 1) == Token.semicolonSymbol && resync.test(next)) {
+            to = sibling[1];
+        } else if (sibling[1] < 0) {
+            // The list ended; it must end at the same token as before
+            to = events.matchingEnd(sibling[0]) + 1;
+            if (events.pos(to) <= last || events.pos(to) + tokenDelta != next)
+                return false;
+        } else {
+            return false;
+        }
+        events.replace(from, to, part, tokenDelta);
+        reparsedTokens = next - firstToken;
+        return true;
+    }
+
+    /**
+     * @return The BEGIN event of the statement after one in a statement list, or -1 if it is the last
+     */
+    private int nextSibling(int statement) {
+        int semicolon = events.matchingEnd(statement) + 1;
+        return (semicolon < events.size() && events.op(semicolon) == ParseEventLog.TOKEN) ? semicolon + 1 : -1;
+    }
+
+    /**
+     * @return The index of the first token ending at or after a character position
+     */
+    private int firstEndingAtOrAfter(int position) {
+        int low = 0, high = tokens.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.end(mid) < position)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Reads the program text from a character position onwards.
+     */
+    private static class SourceReader extends Reader {
+
+        private final CharSequence text;
+        private int position;
+
+        SourceReader(CharSequence text, int position) {
+            this.text = text;
+            this.position = position;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position >= text.length())
+                return -1;
+            int n = Math.min(length, text.length() - position);
+            for (int i = 0; i < n; i++)
+                buffer[offset + i] = text.charAt(position + i);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Usage: IncrementalParser file [edits]
+     * <p>
+     * Edits a program near the last edit each time, as someone typing would, checking after each
+     * edit that the incremental parse gives the same trace and errors as parsing the edited text
+     * from scratch, and reports the mean time of each. The traces of a program of over 100,000
+     * characters are only compared after every hundredth edit and the last. The first run makes random one-character
+     * edits, which soon break the program so that most are parsed in full; the second makes
+     * edits that keep it valid: renaming identifiers, changing numbers, adding white space and
+     * inserting statements.
+     */
+    public static void main(String[] args) throws IOException {
+        String text = new String(Files.readAllBytes(Paths.get(args[0]))).replace("\r\n", "\n").replace('\r', '\n');
+        int edits = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        run("random edits", args[0], text, edits, false);
+        run("edits keeping the program valid", args[0], text, edits, true);
+    }
+
+    private static void run(String title, String fileName, String text, int edits, boolean keepValid) throws IOException {
+        Random random = new Random(42);
+        String alphabet = "abxyz019 ;:=+-*/()<>\n";
+
+        long fullTime = 0, editTime = 0;
+        long reparsed = 0;
+        IncrementalParser parser = new IncrementalParser(fileName, text);
+        StringBuilder expected = new StringBuilder(text);
+        int cursor = text.length() / 2;
+        for (int i = 0; i < edits; i++) {
+            cursor = Math.max(0, Math.min(expected.length(), cursor + random.nextInt(201) - 100));
+            int from = cursor, to = cursor;
+            String insert;
+            if (keepValid) {
+                int t = parser.firstEndingAtOrAfter(cursor);
+                TokenStream tokens = parser.getTokens();
+                from = to = Math.min(tokens.offset(t), expected.length());
+                switch (tokens.symbol(t)) {
+                    case Token.identifier:
+                        to = from + 1;
+                        insert = "q";
+                        break;
+                    case Token.numberConstant:
+                        to = from + 1;
+                        insert = "7";
+                        break;
+                    case Token.semicolonSymbol:
+                        from = to = tokens.end(t);
+                        insert = " z := 1 ;";
+                        break;
+                    default:
+                        insert = random.nextBoolean() ? " " : "\n";
+                        break;
+                }
+            } else {
+                to = (random.nextBoolean() && from < expected.length()) ? from + 1 : from;
+                insert = (to == from || random.nextBoolean())
+                        ? String.valueOf(alphabet.charAt(random.nextInt(alphabet.length()))) : "";
+            }
+            expected.replace(from, to, insert);
+
+            long start = System.nanoTime();
+            parser.edit(from, to, insert);
+            editTime += System.nanoTime() - start;
+            reparsed += parser.getReparsedTokens();
+
+            start = System.nanoTime();
+            IncrementalParser full = new IncrementalParser(fileName, expected);
+            fullTime += System.nanoTime() - start;
+
+            boolean check = text.length() <= 100000 || i % 100 == 0 || i == edits - 1;
+            if ((check && !trace(parser).equals(trace(full))) || !parser.getErrors().equals(full.getErrors())) {
+                System.out.println("incremental parse differs after edit " + i + " at " + from);
+                System.exit(1);
+            }
+        }
+        System.out.printf("%d %s: incremental %.1f us, full %.1f us, %.1f tokens reparsed per edit%n",
+                edits, title, editTime / 1000.0 / edits, fullTime / 1000.0 / edits, (double) reparsed / edits);
+    }
+
+    private static String trace(IncrementalParser parser) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStreamSink sink = new PrintStreamSink(new PrintStream(bytes));
+        parser.replay(sink);
+        sink.flush();
+        return bytes.toString();
+    }
+
+}
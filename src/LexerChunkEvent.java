@@ -0,0 +1,37 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event for a run of tokens read by a LexicalAnalyser, lasting from the first
+ * to the last of them. Runs are LexicalAnalyser.CHUNK_TOKENS tokens long, apart from the last of
+ * a file, so a file gives a sample of events rather than one per token. Disabled unless a
+ * recording turns it on.
+ */
+@Name("recogniser.LexerChunk")
+@Label("Lexer Chunk")
+@Category({"Recursive Descent Recogniser"})
+@Description("A run of tokens read by a lexical analyser")
+@Enabled(false)
+@StackTrace(false)
+class LexerChunkEvent extends jdk.jfr.Event {
+
+    @Label("Source")
+    String source;
+
+    @Label("Tokens")
+    int tokens;
+
+    @Label("Characters")
+    long characters;
+
+    @Label("First Line")
+    int firstLine;
+
+    @Label("Last Line")
+    int lastLine;
+
+}
@@ -7,121 +7,568 @@
  **/
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
-public class LexicalAnalyser {
+public class LexicalAnalyser implements TokenSource {
 
     /**
-     * Represents a textual and symbolic reserved word.
+     * The EOF character.
      */
-    class ReservedWord {
-        /**
-         * The text used in source.
-         */
-        public String text;
-        /**
-         * The type (one of the class constants from Token) of this word.
-         */
-        public int symbol;
-
-        /**
-         * Creates a new reserved word from the observed text and a given type.
-         *
-         * @param t The text as seen in source.
-         * @param s The type of this word, typically a class constant from Token
-         */
-        public ReservedWord(String t, int s) {
-            text = t;
-            symbol = s;
-        } // end of constructor method
-    } // end of class ReservedWord
-
+    private static final char EOF = '\000';
     /**
-     * The maximum number of identifiers to hold during compilation.
+     * The largest region of a file mapped at once by the NIO backend.
      */
-    private static final int maxTableSize = 200;
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
     /**
-     * The EOF character.
+     * The largest buffer reset() keeps from one file to the next.
      */
-    private static final char EOF = '\000';
-
+    private static final int RETAINED_BYTES = 1024 * 1024;
     /**
-     * A list of symbols.
+     * The charset every source is read in, as FileReader and StreamingLexer read it.
      */
-    private ReservedWord[] symbols = new ReservedWord[maxTableSize];
+    private static final Charset CHARSET = Charset.defaultCharset();
+    /**
+     * True if CHARSET reads each ASCII byte on its own as that character, so that the bytes of a
+     * mapped source can be scanned in place and only the others need decoding.
+     */
+    private static final boolean ASCII_COMPATIBLE = isAsciiCompatible(CHARSET);
+    /**
+     * The number of tokens in each LexerChunkEvent.
+     */
+    static final int CHUNK_TOKENS = 4096;
+    /**
+     * A byte of ones and a byte of high bits, repeated across a long, for scanning eight bytes at a time.
+     */
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
     /**
-     * Holds the current number of symbols held.
+     * The tokens of the language, as a TokenSpec description. The quirks of the lexer are
+     * part of it: a line end inside a string constant is not counted, a string constant
+     * left open at the end of the input reads past it, a NUL is part of a string constant
+     * or comment but anywhere else is read as the end of the input, and any other character
+     * is an error token of its own.
      */
-    private int noOfSymbols;
+    static final String TOKENS = String.join("\n",
+            "start      EOF",
+            "    blank      start       blanks",
+            "    newline    start       line",
+            "    letter     word        text",
+            "    digit      number      text",
+            "    '\"'        string",
+            "    any        error",
+            "# The state after '-', added to with the start of a comment",
+            "'-'",
+            "    '-'        comment     skip-line",
+            "comment    EOF",
+            "    newline    start       line",
+            "    nul        comment     skip-line",
+            "    any        comment     skip-line",
+            "word       IDENTIFIER",
+            "    letter     word        text",
+            "    digit      word        text",
+            "number     NUMBER",
+            "    digit      number      text",
+            "    '.'        fraction    text",
+            "fraction   NUMBER",
+            "    digit      fraction    text",
+            "string     STRING",
+            "    '\"'        closed",
+            "    eof        closed",
+            "    nul        string      text copy-string",
+            "    any        string      text copy-string",
+            "closed     STRING",
+            "error      ERROR");
+
+    static final TokenSpec SPEC = new TokenSpec(TOKENS);
+
+    /* The class of each ASCII character, and the transitions, flattened to one row of
+       CLASS_COUNT entries after another and each holding the offset of the row of the next
+       state rather than its number, and the token each state gives. */
+    private static final byte[] CLASSES = SPEC.classes();
+    private static final int CLASS_COUNT = SPEC.classCount();
+    private static final int[] NEXT = rows(SPEC.transitions());
+    private static final int[] ACCEPT = SPEC.accepts();
+    private static final int RUNS = TokenSpec.LINE | TokenSpec.BLANKS | TokenSpec.SKIP_LINE | TokenSpec.COPY_STRING;
 
     /**
      * Is this the first time we have been called?
      */
     private boolean firstCall;
 
+    /**
+     * Has the end of the input been read? currentCharacter is then EOF, as it is for a NUL.
+     */
+    private boolean atEnd;
+
     /**
      * An input stream from the filename mentioned above.
      */
     private BufferedReader sourceFile;
 
+    /**
+     * The memory-mapped source file, or the whole of a file read into a buffer, or null when
+     * reading through sourceFile.
+     */
+    private FileChannel sourceChannel;
+    private ByteBuffer sourceBuffer;
+    /**
+     * The buffer files given to reset() are read into, kept from one file to the next while it
+     * is no larger than RETAINED_BYTES.
+     */
+    private ByteBuffer sourceBytes;
+    /* Size of the mapped file, offset of the current window, and NIO decoder state. */
+    private long sourceSize,
+            windowOffset;
+    private boolean lineOpen;
+    private char pendingCharacter;
+    /* The decoder of the bytes of the mapped source outside ASCII, the bytes it is given, the
+       characters it gives, and bytes it was given but did not use, to be read again. */
+    private CharsetDecoder decoder;
+    private ByteBuffer decoderInput;
+    private CharBuffer decoderOutput;
+    private ByteBuffer undecoded = ByteBuffer.allocate(0);
+
     /* State-change character and offset counts. */
     private char currentCharacter;
     private String currentLine;
     private int currentOffset,
             currentLineNumber;
+    /* Character positions in the source of currentCharacter and of the start of the last token. */
+    private int currentPosition,
+            tokenStart;
+
+    /* input buffer: the text of the token being read, and its length once it has been read */
+    private char[] tokenText = new char[64];
+    private int tokenLength;
 
-    /* input buffer */
-    private StringBuffer currentText = new StringBuffer();
+    /* The table words are interned in, made when the first is read unless one is given, and
+       the id of the last token read if it was a word, reserved or not, or else 0. */
+    private IdentifierTable identifiers;
+    private int currentId;
+
+    /* The name of the input, for flight recorder events. */
+    private String sourceName;
+    /* The flight recorder event for the run of tokens being read, or null when it is not being
+       recorded, the tokens left in the run, and the character position the run started at. */
+    private LexerChunkEvent chunk;
+    private int chunkTokens;
+    private int chunkStart;
 
     /**
-     * Adds a reserved word to the internal symbol table.
+     * Creates a new LexicalAnalyser which will run over the given file.
      *
-     * @param t The text as seen in source.
-     * @param s The type of this word, typically a class constant from Token
+     * @param fileName The file to read.
+     * @throws IOException if any read errors occur during parsing.
      */
-    private void setReservedWord(String t, int s) {
-        symbols[noOfSymbols] = new ReservedWord(t, s);
-        noOfSymbols++;
-    } // end of method setReservedWord
+    public LexicalAnalyser(String fileName) throws IOException {
+        this(fileName, false);
+    } // end of constructor method
 
+    /**
+     * Creates a new LexicalAnalyser which will run over the given file, optionally
+     * scanning a memory-mapped image of the file rather than reading it line by line.
+     * Either way the file is read in the platform's default charset; if that charset does
+     * not read ASCII as ASCII, the file is read line by line even when mapping is asked for.
+     *
+     * @param fileName The file to read.
+     * @param mapped   True to map the file with NIO and scan its bytes in place.
+     * @throws IOException if any read errors occur during parsing.
+     */
+    public LexicalAnalyser(String fileName, boolean mapped) throws IOException {
+        sourceName = fileName;
+        if (mapped && ASCII_COMPATIBLE) {
+            sourceChannel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            sourceSize = sourceChannel.size();
+            windowOffset = 0;
+            lineOpen = false;
+            pendingCharacter = EOF;
+            mapWindow();
+        } else {
+            sourceFile = new BufferedReader(new FileReader(fileName));
+            currentLine = sourceFile.readLine();
+        }
+        start();
+    } // end of constructor method
 
     /**
-     * Sets all initial variables and adds the language's reserved words to the symbol table.
+     * Creates a new LexicalAnalyser which will run over text from any Reader.
+     *
+     * @param source The text to read.
+     * @throws IOException if any read errors occur during parsing.
      */
-    private void initialiseScanner() {
-        noOfSymbols = 0;
-        setReservedWord("begin", Token.beginSymbol);
-        setReservedWord("call", Token.callSymbol);
-        setReservedWord("do", Token.doSymbol);
-        setReservedWord("else", Token.elseSymbol);
-        setReservedWord("end", Token.endSymbol);
-        setReservedWord("float", Token.floatSymbol);
-        setReservedWord("if", Token.ifSymbol);
-        setReservedWord("integer", Token.integerSymbol);
-        setReservedWord("is", Token.isSymbol);
-        setReservedWord("loop", Token.loopSymbol);
-        setReservedWord("procedure", Token.procedureSymbol);
-        setReservedWord("string", Token.stringSymbol);
-        setReservedWord("then", Token.thenSymbol);
-        setReservedWord("until", Token.untilSymbol);
-        setReservedWord("while", Token.whileSymbol);
-    } // end of method initialiseScanner
+    public LexicalAnalyser(Reader source) throws IOException {
+        sourceFile = new BufferedReader(source);
+        currentLine = sourceFile.readLine();
+        start();
+    } // end of constructor method
 
+    /**
+     * Creates a LexicalAnalyser with no input, which gives EOF until it is given a source by
+     * reset().
+     */
+    public LexicalAnalyser() {
+        start();
+    } // end of constructor method
 
     /**
-     * Creates a new LexicalAnalyser which will run over the given file.
+     * Makes this LexicalAnalyser run over another file, as if it had just been created for it,
+     * closing the input it was reading. The buffers grown for earlier files are kept, so lexing
+     * one file after another with the same LexicalAnalyser allocates next to nothing per file.
+     * <p>
+     * Unless it is mapped, the file is read whole into a buffer, kept from one file to the next
+     * unless it is larger than RETAINED_BYTES. If it is all ASCII, it is scanned in place as the
+     * mapped source is; otherwise it is decoded from the buffer by a Reader in the platform's
+     * default charset, just as it would be by the constructor. A file too large for one window of
+     * the mapped source is read line by line, as by the constructor.
      *
      * @param fileName The file to read.
-     * @throws IOException if any read errors occur during parsing.
+     * @param mapped   True to map the file with NIO and scan its bytes in place.
+     * @throws IOException if any read errors occur.
      */
-    public LexicalAnalyser(String fileName) throws IOException {
-        initialiseScanner();
+    public void reset(String fileName, boolean mapped) throws IOException {
+        closeSource();
+        sourceName = fileName;
+        sourceChannel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        sourceSize = sourceChannel.size();
+        windowOffset = 0;
+        lineOpen = false;
+        pendingCharacter = EOF;
+        undecoded.position(undecoded.limit());
+        if (mapped && ASCII_COMPATIBLE) {
+            mapWindow();
+        } else if (sourceSize > MAP_WINDOW) {
+            sourceChannel.close();
+            sourceChannel = null;
+            sourceFile = new BufferedReader(new FileReader(fileName));
+            currentLine = sourceFile.readLine();
+        } else {
+            ByteBuffer bytes = sourceBytes;
+            if (bytes == null || bytes.capacity() < sourceSize) {
+                bytes = ByteBuffer.allocate((int) Math.max(sourceSize, 8192));
+                if (bytes.capacity() <= RETAINED_BYTES)
+                    sourceBytes = bytes;
+            }
+            bytes.clear().limit((int) sourceSize);
+            try (FileChannel channel = sourceChannel) {
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0)
+                    ;
+            }
+            sourceChannel = null;
+            bytes.flip();
+            if (ASCII_COMPATIBLE && isAscii(bytes)) {
+                // Whatever was read is all of the source there is
+                sourceBuffer = bytes;
+                sourceSize = windowOffset = sourceBuffer.limit();
+            } else {
+                sourceFile = new BufferedReader(new InputStreamReader(
+                        new ByteArrayInputStream(bytes.array(), 0, bytes.limit()), CHARSET));
+                currentLine = sourceFile.readLine();
+            }
+        }
+        start();
+    } // end of method reset
 
-        sourceFile = new BufferedReader(new FileReader(fileName));
+    /**
+     * Makes this LexicalAnalyser run over text from another Reader, as if it had just been
+     * created for it, closing the input it was reading.
+     *
+     * @param source The text to read.
+     * @throws IOException if any read errors occur.
+     */
+    public void reset(Reader source) throws IOException {
+        closeSource();
+        sourceName = null;
+        sourceFile = new BufferedReader(source);
         currentLine = sourceFile.readLine();
+        start();
+    } // end of method reset
+
+    /**
+     * Tests whether the bytes of a buffer, up to its limit, are all ASCII.
+     *
+     * @param bytes The buffer.
+     * @return true if no byte has its high bit set.
+     */
+    private static boolean isAscii(ByteBuffer bytes) {
+        int n = bytes.limit();
+        int i = 0;
+        for (; i + 8 <= n; i += 8)
+            if ((bytes.getLong(i) & HIGH_BITS) != 0)
+                return false;
+        for (; i < n; i++)
+            if (bytes.get(i) < 0)
+                return false;
+        return true;
+    } // end of method isAscii
+
+    /**
+     * Tests whether a charset reads every ASCII byte as the same character.
+     *
+     * @param charset The charset.
+     * @return true if the bytes 0 to 127 decode to the characters 0 to 127.
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++)
+            ascii[i] = (byte) i;
+        return new String(ascii, charset).equals(new String(ascii, StandardCharsets.US_ASCII));
+    } // end of method isAsciiCompatible
+
+    /**
+     * Sets the state of the scan for the first token of the input.
+     */
+    private void start() {
         currentOffset = 0;
         firstCall = true;
+        atEnd = false;
         currentLineNumber = 0;
-    } // end of constructor method
+        currentPosition = -1;
+        tokenLength = 0;
+        currentId = 0;
+        chunk = null;
+        chunkTokens = 0;
+    } // end of method start
+
+    /**
+     * Closes the input being read, if it is still open, and commits the flight recorder event
+     * for the tokens read from it since the last one, even if it was not read to the end.
+     * The LexicalAnalyser gives EOF until it is given another source by reset().
+     *
+     * @throws IOException if the input cannot be closed.
+     */
+    public void close() throws IOException {
+        closeSource();
+        start();
+    } // end of method close
+
+    /**
+     * Closes the input being read, if it is still open, and forgets it, committing the flight
+     * recorder event for the run of tokens being read.
+     *
+     * @throws IOException if the input cannot be closed.
+     */
+    private void closeSource() throws IOException {
+        endChunk(CHUNK_TOKENS - chunkTokens);
+        try {
+            if (sourceFile != null)
+                sourceFile.close();
+            if (sourceChannel != null)
+                sourceChannel.close();
+        } finally {
+            sourceFile = null;
+            sourceChannel = null;
+            sourceBuffer = null;
+            currentLine = null;
+        }
+    } // end of method closeSource
+
+    /**
+     * Sets where in a larger source the input begins, for lexing part of a file.
+     * Must be called before the first token is read.
+     *
+     * @param position   The character position of the first character of the input.
+     * @param lineNumber The line number of the first token of the input.
+     */
+    void setPosition(int position, int lineNumber) {
+        currentPosition = position - 1;
+        currentLineNumber = lineNumber;
+    } // end of method setPosition
+
+    /**
+     * Replaces the state each transition goes to with the offset of the row of that state.
+     *
+     * @param transitions The transitions of SPEC.
+     * @return the same array.
+     */
+    private static int[] rows(int[] transitions) {
+        int actions = (1 << TokenSpec.STATE_SHIFT) - 1;
+        for (int i = 0; i < transitions.length; i++)
+            if (transitions[i] >= 0)
+                transitions[i] = (((transitions[i] >>> TokenSpec.STATE_SHIFT) * CLASS_COUNT) << TokenSpec.STATE_SHIFT)
+                        | (transitions[i] & actions);
+        return transitions;
+    } // end of method rows
+
+    /**
+     * Sets the table identifiers are interned in, so that the ids of names are the same across
+     * every lexer sharing it. Must be called before the first token is read.
+     *
+     * @param identifiers The table to intern identifiers in.
+     */
+    public void setIdentifierTable(IdentifierTable identifiers) {
+        this.identifiers = identifiers;
+    } // end of method setIdentifierTable
+
+    /**
+     * Returns the table identifiers are interned in, making one if none has been given.
+     *
+     * @return the table.
+     */
+    public IdentifierTable getIdentifierTable() {
+        if (identifiers == null)
+            identifiers = new IdentifierTable();
+        return identifiers;
+    } // end of method getIdentifierTable
+
+    /**
+     * Maps the next window of the source file, closing the channel once the whole file is mapped.
+     *
+     * @throws IOException if the file cannot be mapped.
+     */
+    private void mapWindow() throws IOException {
+        long length = Math.min(MAP_WINDOW, sourceSize - windowOffset);
+        sourceBuffer = sourceChannel.map(FileChannel.MapMode.READ_ONLY, windowOffset, length);
+        windowOffset += length;
+        if (windowOffset >= sourceSize)
+            sourceChannel.close();
+    } // end of method mapWindow
+
+    /**
+     * Reads the next byte of the mapped source, moving to the next window when required.
+     *
+     * @return the next byte, or -1 at the end of the file.
+     * @throws IOException if the next window cannot be mapped.
+     */
+    private int nextMappedByte() throws IOException {
+        if (undecoded.hasRemaining())
+            return undecoded.get() & 0xff;
+        if (!sourceBuffer.hasRemaining()) {
+            if (windowOffset >= sourceSize)
+                return -1;
+            mapWindow();
+        }
+        return sourceBuffer.get() & 0xff;
+    } // end of method nextMappedByte
+
+    /**
+     * Looks at the next byte of the mapped source without reading it, moving to the next window
+     * when required.
+     *
+     * @return the next byte, or -1 at the end of the file.
+     * @throws IOException if the next window cannot be mapped.
+     */
+    private int peekMappedByte() throws IOException {
+        if (undecoded.hasRemaining())
+            return undecoded.get(undecoded.position()) & 0xff;
+        if (!sourceBuffer.hasRemaining()) {
+            if (windowOffset >= sourceSize)
+                return -1;
+            mapWindow();
+        }
+        return sourceBuffer.get(sourceBuffer.position()) & 0xff;
+    } // end of method peekMappedByte
+
+    /**
+     * Decodes the next character of the mapped source in CHARSET, presenting line ends
+     * exactly as readLine() does: "\r", "\n" and "\r\n" all become a single '\n', and a
+     * final line without a terminator is still followed by one.
+     *
+     * @return the next character, or EOF.
+     * @throws IOException if the next window cannot be mapped.
+     */
+    private char nextMappedCharacter() throws IOException {
+        if (pendingCharacter != EOF) {
+            char c = pendingCharacter;
+            pendingCharacter = EOF;
+            return c;
+        }
+
+        int b = nextMappedByte();
+        if (b < 0) {
+            if (lineOpen) {
+                lineOpen = false;
+                return '\n';
+            }
+            atEnd = true;
+            return EOF;
+        }
+
+        if (b == '\n') {
+            lineOpen = false;
+            return '\n';
+        } else if (b == '\r') {
+            lineOpen = false;
+            if (peekMappedByte() == '\n')
+                nextMappedByte();
+            return '\n';
+        }
+
+        lineOpen = true;
+        if (b < 0x80)
+            return (char) b;
+        return decodeMappedCharacter(b);
+    } // end of method nextMappedCharacter
+
+    /**
+     * Decodes a character of the mapped source outside ASCII, giving the decoder one byte at a
+     * time until it gives a character, as a Reader would decode it. Malformed and unmappable
+     * bytes become '\ufffd'. Any bytes the decoder was given but did not use are read again.
+     *
+     * @param b The first byte of the character, already read.
+     * @return the character, or the first of a surrogate pair, the second being left pending.
+     * @throws IOException if the next window cannot be mapped.
+     */
+    private char decodeMappedCharacter(int b) throws IOException {
+        if (decoder == null) {
+            decoder = CHARSET.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoderInput = ByteBuffer.allocate(16);
+            decoderOutput = CharBuffer.allocate(2);
+        }
+        decoder.reset();
+        decoderInput.clear();
+        decoderInput.put((byte) b);
+        boolean end = false;
+        while (true) {
+            decoderInput.flip();
+            // Ask for one character, so that nothing after it is decoded, unless it takes two
+            decoderOutput.clear().limit(1);
+            decoder.decode(decoderInput, decoderOutput, end);
+            if (decoderOutput.position() == 0) {
+                decoderOutput.limit(2);
+                decoder.decode(decoderInput, decoderOutput, end);
+                if (end)
+                    decoder.flush(decoderOutput);
+            }
+            if ((decoderOutput.position() > 0) || end)
+                break;
+            decoderInput.compact();
+            int next = decoderInput.hasRemaining() ? nextMappedByte() : -1;
+            if (next < 0)
+                end = true;
+            else
+                decoderInput.put((byte) next);
+        }
+
+        // Put back what was not used, in front of anything already put back
+        if (decoderInput.hasRemaining()) {
+            int n = decoderInput.remaining();
+            int rest = undecoded.remaining();
+            byte[] bytes = new byte[n + rest];
+            decoderInput.get(bytes, 0, n);
+            undecoded.get(bytes, n, rest);
+            undecoded = ByteBuffer.wrap(bytes);
+        }
+
+        decoderOutput.flip();
+        if (!decoderOutput.hasRemaining())
+            return '\ufffd';
+        char c = decoderOutput.get();
+        if (decoderOutput.hasRemaining())
+            pendingCharacter = decoderOutput.get();
+        return c;
+    } // end of method decodeMappedCharacter
 
     /**
      * Loads the next character of the input into the buffer.
@@ -129,9 +576,13 @@ public class LexicalAnalyser {
      * @throws IOException in the event that something like velociraptor attack happens to the input stream.
      */
     private void getNextCharacter() throws IOException {
-        if (currentLine == null)
+        currentPosition++;
+        if (sourceBuffer != null)
+            currentCharacter = nextMappedCharacter();
+        else if (currentLine == null) {
             currentCharacter = EOF;
-        else if (currentOffset >= currentLine.length()) {
+            atEnd = true;
+        } else if (currentOffset >= currentLine.length()) {
             currentLine = sourceFile.readLine();
             currentOffset = 0;
             currentCharacter = '\n';
@@ -141,134 +592,405 @@ public class LexicalAnalyser {
         }
     } // end of method getNextCharacter
 
+    /**
+     * Moves past the spaces and tabs after currentCharacter in one go, rather than a character
+     * at a time, leaving the next character of the input to be read by getNextCharacter().
+     */
+    private void skipBlanks() {
+        if (sourceBuffer != null) {
+            if ((pendingCharacter != EOF) || undecoded.hasRemaining())
+                return;
+            int p = sourceBuffer.position();
+            int limit = sourceBuffer.limit();
+            int from = p;
+            while (p < limit) {
+                byte b = sourceBuffer.get(p);
+                if ((b != ' ') && (b != '\t'))
+                    break;
+                p++;
+            }
+            sourceBuffer.position(p);
+            currentPosition += p - from;
+            if (p > from)
+                lineOpen = true;
+        } else if (currentLine != null) {
+            int limit = currentLine.length();
+            int from = currentOffset;
+            while (currentOffset < limit) {
+                char c = currentLine.charAt(currentOffset);
+                if ((c != ' ') && (c != '\t'))
+                    break;
+                currentOffset++;
+            }
+            currentPosition += currentOffset - from;
+        }
+    } // end of method skipBlanks
+
+    /**
+     * Moves past the characters after currentCharacter up to the end of the line, or for a
+     * string constant up to the closing quote or the end of the line, in one go, leaving the
+     * character that stopped the run to be read by getNextCharacter(). Line ends are never
+     * part of a run, so they are still read and counted one at a time.
+     * <p>
+     * A line read from a file is searched with String.indexOf, which the JIT vectorises. The
+     * mapped source is scanned eight bytes at a time, each long tested for a byte that ends the
+     * run with bitwise arithmetic; a run also ends at a byte outside ASCII, to be decoded by
+     * getNextCharacter(), and at the end of the mapped window.
+     *
+     * @param string True to copy the run onto tokenText, ending it at a quote, which ends a
+     *               string constant.
+     * @param length The number of characters in tokenText.
+     * @return the number of characters in tokenText with the run copied on.
+     */
+    private int skipRun(boolean string, int length) {
+        if (sourceBuffer != null) {
+            if ((pendingCharacter != EOF) || undecoded.hasRemaining())
+                return length;
+            int p = sourceBuffer.position();
+            int limit = sourceBuffer.limit();
+            int from = p;
+            while (p + 8 <= limit) {
+                long w = sourceBuffer.getLong(p);
+                long stop = (w & HIGH_BITS) | hasByte(w, '\n') | hasByte(w, '\r');
+                if (string)
+                    stop |= hasByte(w, '"');
+                if (stop != 0)
+                    break;
+                p += 8;
+            }
+            while (p < limit) {
+                byte b = sourceBuffer.get(p);
+                if ((b < 0) || (b == '\n') || (b == '\r') || (string && (b == '"')))
+                    break;
+                p++;
+            }
+            int n = p - from;
+            if (n == 0)
+                return length;
+            if (string) {
+                ensureTokenText(length + n);
+                for (int i = 0; i < n; i++)
+                    tokenText[length++] = (char) sourceBuffer.get(from + i);
+            }
+            sourceBuffer.position(p);
+            currentPosition += n;
+            lineOpen = true;
+        } else if (currentLine != null) {
+            int limit = currentLine.length();
+            int end = limit;
+            if (string) {
+                int quote = currentLine.indexOf('"', currentOffset);
+                if (quote >= 0)
+                    end = quote;
+            }
+            if (string) {
+                ensureTokenText(length + end - currentOffset);
+                currentLine.getChars(currentOffset, end, tokenText, length);
+                length += end - currentOffset;
+            }
+            currentPosition += end - currentOffset;
+            currentOffset = end;
+        }
+        return length;
+    } // end of method skipRun
+
+    /**
+     * Moves past the characters after currentCharacter that take the same transition as it
+     * did, a transition marked LOOP, adding them to tokenText in one go. The characters are
+     * taken straight from the line read from a file, or from the mapped source while they
+     * are ASCII, leaving the character that stopped the run to be read by getNextCharacter().
+     *
+     * @param row    The offset of the row of the state in NEXT.
+     * @param entry  The transition taken.
+     * @param length The number of characters in tokenText.
+     * @return the number of characters in tokenText with the run added.
+     */
+    private int takeRun(int row, int entry, int length) {
+        int n = length;
+        if (sourceBuffer != null) {
+            if ((pendingCharacter != EOF) || undecoded.hasRemaining())
+                return length;
+            int p = sourceBuffer.position();
+            int limit = sourceBuffer.limit();
+            while (p < limit) {
+                byte b = sourceBuffer.get(p);
+                if ((b < 0) || (NEXT[row + CLASSES[b]] != entry))
+                    break;
+                if (n == tokenText.length)
+                    ensureTokenText(n + 1);
+                tokenText[n++] = (char) b;
+                p++;
+            }
+            sourceBuffer.position(p);
+            if (n > length)
+                lineOpen = true;
+        } else if (currentLine != null) {
+            String line = currentLine;
+            int limit = line.length();
+            int offset = currentOffset;
+            while (offset < limit) {
+                char c = line.charAt(offset);
+                if (NEXT[row + ((c < 128) ? CLASSES[c] : TokenSpec.nonAsciiClass(c))] != entry)
+                    break;
+                if (n == tokenText.length)
+                    ensureTokenText(n + 1);
+                tokenText[n++] = c;
+                offset++;
+            }
+            currentOffset = offset;
+        }
+        currentPosition += n - length;
+        return n;
+    } // end of method takeRun
+
+    /**
+     * Makes room in tokenText for a number of characters.
+     *
+     * @param n The number of characters.
+     */
+    private void ensureTokenText(int n) {
+        if (n > tokenText.length)
+            tokenText = Arrays.copyOf(tokenText, Math.max(n, tokenText.length * 2));
+    } // end of method ensureTokenText
+
+    /**
+     * Tests the bytes of a long holding only ASCII for a given byte. Subtracting one from each
+     * byte of the long exclusive-ored with the byte sets the high bit of a byte that was zero,
+     * and of no other while none of the bytes have high bits of their own.
+     *
+     * @param w The bytes to test.
+     * @param b The byte to look for.
+     * @return a nonzero value if any byte of w is b.
+     */
+    private static long hasByte(long w, int b) {
+        long x = w ^ (ONES * b);
+        return (x - ONES) & ~x & HIGH_BITS;
+    } // end of method hasByte
+
+    /**
+     * Recognises a reserved word directly from the characters of a word, switching on
+     * the first letter and comparing the rest with the case folded inline.
+     *
+     * @param text The letters and digits of the word.
+     * @return the symbol of the reserved word, or Token.identifier.
+     */
+    static int reservedWordSymbol(CharSequence text) {
+        int length = text.length();
+        if ((length < 2) || (length > 9))
+            return Token.identifier;
+
+        switch (foldedCharacter(text, 0)) {
+            case 'b':
+                return isWord(text, "begin") ? Token.beginSymbol : Token.identifier;
+            case 'c':
+                return isWord(text, "call") ? Token.callSymbol : Token.identifier;
+            case 'd':
+                return isWord(text, "do") ? Token.doSymbol : Token.identifier;
+            case 'e':
+                if (length == 3)
+                    return isWord(text, "end") ? Token.endSymbol : Token.identifier;
+                return isWord(text, "else") ? Token.elseSymbol : Token.identifier;
+            case 'f':
+                return isWord(text, "float") ? Token.floatSymbol : Token.identifier;
+            case 'i':
+                if (length == 2) {
+                    char c = foldedCharacter(text, 1);
+                    return (c == 'f') ? Token.ifSymbol : (c == 's') ? Token.isSymbol : Token.identifier;
+                }
+                return isWord(text, "integer") ? Token.integerSymbol : Token.identifier;
+            case 'l':
+                return isWord(text, "loop") ? Token.loopSymbol : Token.identifier;
+            case 'p':
+                return isWord(text, "procedure") ? Token.procedureSymbol : Token.identifier;
+            case 's':
+                return isWord(text, "string") ? Token.stringSymbol : Token.identifier;
+            case 't':
+                return isWord(text, "then") ? Token.thenSymbol : Token.identifier;
+            case 'u':
+                return isWord(text, "until") ? Token.untilSymbol : Token.identifier;
+            case 'w':
+                return isWord(text, "while") ? Token.whileSymbol : Token.identifier;
+            default:
+                return Token.identifier;
+        }
+    } // end of method reservedWordSymbol
+
+    /**
+     * Compares a word with a lower case reserved word, ignoring the case of ASCII letters.
+     *
+     * @param text The word.
+     * @param word The reserved word, in lower case.
+     * @return true if text spells the word.
+     */
+    private static boolean isWord(CharSequence text, String word) {
+        if (text.length() != word.length())
+            return false;
+        for (int i = 1; i < word.length(); i++)
+            if (foldedCharacter(text, i) != word.charAt(i))
+                return false;
+        return true;
+    } // end of method isWord
+
+    /**
+     * Returns a character of a word with ASCII upper case letters folded to lower case.
+     * No reserved word contains a letter whose lower case form is reached from outside ASCII.
+     *
+     * @param text The word.
+     * @param i    The offset of the character.
+     * @return the folded character.
+     */
+    private static char foldedCharacter(CharSequence text, int i) {
+        char c = text.charAt(i);
+        return ((c >= 'A') && (c <= 'Z')) ? (char) (c + ('a' - 'A')) : c;
+    } // end of method foldedCharacter
+
     /**
      * Returns the next token from the source file.  Repeatedly calling this
-     * will return each token in the file, and eventually null.
+     * will return each token in the file, and eventually null. The text of a
+     * word is the name interned for it, shared by every token spelt the same way,
+     * so a reserved word keeps its spelling in the source.
      *
      * @return the next token from the source file.
      * @throws IOException in the event that the file cannot be read.
      */
     public Token getNextToken() throws IOException {
-        if (firstCall) {
-            getNextCharacter();
-            firstCall = false;
-        }
+        if (--chunkTokens < 0)
+            nextChunk();
+        int symbol = scanToken();
+        if (symbol == Token.eofSymbol)
+            endChunk(CHUNK_TOKENS - chunkTokens);
+        if (currentId != 0) {
+            Token token = new Token(symbol, identifiers.name(currentId), currentLineNumber);
+            if (symbol == Token.identifier)
+                token.id = currentId;
+            return token;
+        } else if (Token.hasText(symbol))
+            return new Token(symbol, new String(tokenText, 0, tokenLength), currentLineNumber);
+        else
+            return new Token(symbol, Token.getText(symbol), currentLineNumber);
+    } // end of method getNextToken
 
-        while ((currentCharacter == ' ') || (currentCharacter == '\t') ||
-                (currentCharacter == '\n') || (currentCharacter == '-')) {
-            if (currentCharacter == '-') {
-                getNextCharacter();
-                if (currentCharacter == '-') {
-                    while (currentCharacter != '\n')
-                        getNextCharacter();
-                } else
-                    return new Token(Token.minusSymbol, "-", currentLineNumber);
-            }
+    /**
+     * Scans the next token from the source file onto the end of a token stream,
+     * copying its text straight from the input buffer without creating a Token.
+     * A reserved word is given its text too, as it is spelt in the source.
+     *
+     * @param tokens The token stream to add to.
+     * @throws IOException in the event that the file cannot be read.
+     */
+    public void getNextToken(TokenStream tokens) throws IOException {
+        if (--chunkTokens < 0)
+            nextChunk();
+        int symbol = scanToken();
+        if (symbol == Token.eofSymbol)
+            endChunk(CHUNK_TOKENS - chunkTokens);
+        tokens.add(symbol, tokenText, (Token.hasText(symbol) || (currentId != 0)) ? tokenLength : 0,
+                currentLineNumber, tokenStart, currentPosition, (symbol == Token.identifier) ? currentId : 0);
+    } // end of method getNextToken
 
-            if (currentCharacter == '\n')
-                currentLineNumber++;
-            getNextCharacter();
+    /**
+     * Ends the flight recorder event for the run of tokens just read, and starts one for the run
+     * beginning with the token about to be read if the event is being recorded. Whether it is
+     * recorded is only looked up once a run, so the event costs next to nothing when it is off.
+     */
+    private void nextChunk() {
+        endChunk(CHUNK_TOKENS);
+        chunkTokens = CHUNK_TOKENS - 1;
+        LexerChunkEvent event = new LexerChunkEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            event.firstLine = currentLineNumber;
+            chunkStart = currentPosition;
+            chunk = event;
         }
+    } // end of method nextChunk
 
-        if (Character.isLetter(currentCharacter)) {
-            currentText.setLength(0);
-            while ((Character.isLetter(currentCharacter)) ||
-                    (Character.isDigit(currentCharacter))) {
-                currentText.append(currentCharacter);
-                getNextCharacter();
-            }
+    /**
+     * Commits the flight recorder event for the run of tokens being read, if there is one.
+     *
+     * @param tokens The number of tokens in the run.
+     */
+    private void endChunk(int tokens) {
+        if (chunk == null)
+            return;
+        chunk.end();
+        if (chunk.shouldCommit()) {
+            chunk.source = sourceName;
+            chunk.tokens = tokens;
+            chunk.characters = currentPosition - chunkStart;
+            chunk.lastLine = currentLineNumber;
+            chunk.commit();
+        }
+        chunk = null;
+    } // end of method endChunk
 
-            int i = 0;
-            String t = (new String(currentText)).toLowerCase();
-            while ((i < noOfSymbols) &&
-                    (!t.equals(symbols[i].text)))
-                i++;
+    /**
+     * Scans the next token from the source file, leaving the text of identifiers,
+     * constants and errors in tokenText, and the id of a word in currentId.
+     * <p>
+     * The token is recognised by running the DFA generated from TOKENS: each character
+     * is looked up in the table of classes, or classified by Character if it is not
+     * ASCII, and the state and class give the next state and what to do with the
+     * character. When there is no transition the state gives the token. Blanks, line
+     * ends and comments leave the DFA in its first state, where the token is taken
+     * to start.
+     *
+     * @return the symbol of the token, as a class constant from Token.
+     * @throws IOException in the event that the file cannot be read.
+     */
+    private int scanToken() throws IOException {
+        if (firstCall) {
+            getNextCharacter();
+            firstCall = false;
+        }
 
-            if (i < noOfSymbols)
-                return new Token(symbols[i].symbol, currentText, currentLineNumber);
-            else
-                return new Token(Token.identifier, currentText, currentLineNumber);
-        } else if (Character.isDigit(currentCharacter)) {
-            currentText.setLength(0);
-            while (Character.isDigit(currentCharacter)) {
-                currentText.append(currentCharacter);
-                getNextCharacter();
+        int n = 0;
+        int row = 0;
+        while (true) {
+            char c = currentCharacter;
+            int k = (c < 128) ? CLASSES[c] : TokenSpec.nonAsciiClass(c);
+            if ((c == EOF) && atEnd)
+                k = TokenSpec.EOF;
+            int entry = NEXT[row + k];
+            if (entry < 0)
+                break;
+            if (row == 0)
+                tokenStart = currentPosition;
+            if ((entry & TokenSpec.TEXT) != 0) {
+                if (n == tokenText.length)
+                    ensureTokenText(n + 1);
+                tokenText[n++] = c;
+                if ((entry & TokenSpec.LOOP) != 0)
+                    n = takeRun(row, entry, n);
             }
-            if (currentCharacter == '.') {
-                currentText.append(currentCharacter);
-                getNextCharacter();
-                while (Character.isDigit(currentCharacter)) {
-                    currentText.append(currentCharacter);
-                    getNextCharacter();
-                }
+            if ((entry & RUNS) != 0) {
+                if ((entry & TokenSpec.LINE) != 0)
+                    currentLineNumber++;
+                if ((entry & TokenSpec.BLANKS) != 0)
+                    skipBlanks();
+                if ((entry & TokenSpec.SKIP_LINE) != 0)
+                    skipRun(false, 0);
+                if ((entry & TokenSpec.COPY_STRING) != 0)
+                    n = skipRun(true, n);
             }
-            return new Token(Token.numberConstant, currentText, currentLineNumber);
-        } else if (currentCharacter == '"') {
-            getNextCharacter();
-            currentText.setLength(0);
-            while (currentCharacter != '"') {
-                currentText.append(currentCharacter);
-                getNextCharacter();
-            }
-            getNextCharacter();
-            return new Token(Token.stringConstant, currentText, currentLineNumber);
-        } else if (currentCharacter == ':') {
             getNextCharacter();
-            if (currentCharacter == '=') {
-                getNextCharacter();
-                return new Token(Token.becomesSymbol, ":=", currentLineNumber);
-            } else
-                return new Token(Token.colonSymbol, ":", currentLineNumber);
-        } else if (currentCharacter == '>') {
-            getNextCharacter();
-            if (currentCharacter == '=') {
-                getNextCharacter();
-                return new Token(Token.greaterEqualSymbol, ">=", currentLineNumber);
-            } else
-                return new Token(Token.greaterThanSymbol, ">", currentLineNumber);
-        } else if (currentCharacter == '<') {
-            getNextCharacter();
-            if (currentCharacter == '=') {
-                getNextCharacter();
-                return new Token(Token.lessEqualSymbol, "<=", currentLineNumber);
-            } else
-                return new Token(Token.lessThanSymbol, "<", currentLineNumber);
-        } else if (currentCharacter == '/') {
-            getNextCharacter();
-            if (currentCharacter == '=') {
-                getNextCharacter();
-                return new Token(Token.notEqualSymbol, "/=", currentLineNumber);
-            } else
-                return new Token(Token.divideSymbol, "/", currentLineNumber);
-        } else if (currentCharacter == '=') {
-            getNextCharacter();
-            return new Token(Token.equalSymbol, "=", currentLineNumber);
-        } else if (currentCharacter == ',') {
-            getNextCharacter();
-            return new Token(Token.commaSymbol, ",", currentLineNumber);
-        } else if (currentCharacter == ';') {
-            getNextCharacter();
-            return new Token(Token.semicolonSymbol, ";", currentLineNumber);
-        } else if (currentCharacter == '+') {
-            getNextCharacter();
-            return new Token(Token.plusSymbol, "+", currentLineNumber);
-        } else if (currentCharacter == '*') {
-            getNextCharacter();
-            return new Token(Token.timesSymbol, "*", currentLineNumber);
-        } else if (currentCharacter == '(') {
-            getNextCharacter();
-            return new Token(Token.leftParenthesis, "(", currentLineNumber);
-        } else if (currentCharacter == ')') {
-            getNextCharacter();
-            return new Token(Token.rightParenthesis, ")", currentLineNumber);
-        } else if (currentCharacter == EOF) {
-            return new Token(Token.eofSymbol, "", currentLineNumber);
-        } else {
-            currentText = new StringBuffer(currentCharacter);
-            getNextCharacter();        // added 21st January 2005
-            return new Token(Token.errorSymbol, currentText, currentLineNumber);
+            row = entry >>> TokenSpec.STATE_SHIFT;
         }
-    } // end of method getNextToken
+        if (row == 0)
+            tokenStart = currentPosition;
+
+        int symbol = ACCEPT[row / CLASS_COUNT];
+        currentId = 0;
+        if (symbol == Token.identifier) {
+            // Interning the word also finds out whether it is reserved
+            IdentifierTable table = getIdentifierTable();
+            int id = table.intern(tokenText, 0, n);
+            symbol = table.symbol(id);
+            currentId = id;
+        }
+        tokenLength = n;
+        return symbol;
+    } // end of method scanToken
 
     /**
      * Entry point to text Lexer
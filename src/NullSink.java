@@ -0,0 +1,34 @@
+/**
+ * A TraceSink that drops every event, for parses whose trace is not wanted.
+ */
+public class NullSink extends TraceSink {
+
+    @Override
+    public void terminal(int symbol, String text, int line) {
+    }
+
+    @Override
+    public void terminal(int symbol, char[] text, int start, int length, int line) {
+    }
+
+    @Override
+    public void commenceNonterminal(String name) {
+    }
+
+    @Override
+    public void finishNonterminal(String name) {
+    }
+
+    @Override
+    public void success() {
+    }
+
+    @Override
+    public void message(String text) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+}
@@ -0,0 +1,319 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A TraceSink that records the events of a parse against the indices of their tokens in a
+ * TokenStream, so that the structure of the parse can be searched, patched and replayed.
+ * <p>
+ * Each event has an opcode, an argument (a nonterminal name or message id) and the index of the
+ * next token to be accepted when it happened. For a terminal that is the token's own index, and
+ * the nonterminal between a BEGIN and its END covers tokens [pos(begin), pos(end)).
+ * <p>
+ * As in TokenStream, the spare capacity is a gap moved to wherever events are replaced, and
+ * the events after it hold token indices relative to a shift.
+ */
+public class ParseEventLog extends TraceSink {
+
+    static final int BEGIN = 0;
+    static final int END = 1;
+    static final int TOKEN = 2;
+    static final int MESSAGE = 3;
+
+    private int[] op = new int[1024];
+    private int[] arg = new int[1024];
+    private int[] pos = new int[1024];
+    private int size;
+    private int gapStart;
+    private int posShift;
+
+    /* Nonterminal names, shared with any log made to patch this one */
+    private final ArrayList<String> names;
+    private final HashMap<String, Integer> nameIds;
+    private final ArrayList<String> messages = new ArrayList<>();
+
+    private int nextToken;
+    private boolean success;
+
+    public ParseEventLog() {
+        names = new ArrayList<>();
+        nameIds = new HashMap<>();
+    }
+
+    /**
+     * Creates a log for a part of a parse, sharing the name table of a whole one.
+     *
+     * @param whole      The log of the whole parse
+     * @param firstToken The index of the first token of the part
+     */
+    public ParseEventLog(ParseEventLog whole, int firstToken) {
+        names = whole.names;
+        nameIds = whole.nameIds;
+        nextToken = firstToken;
+    }
+
+    private void add(int o, int a, int p) {
+        if (gapStart != size)
+            moveGap(size);
+        ensureCapacity(size + 1);
+        op[size] = o;
+        arg[size] = a;
+        pos[size] = p;
+        size++;
+        gapStart++;
+    }
+
+    /**
+     * @return The index in the arrays of an event
+     */
+    private int slot(int e) {
+        return (e < gapStart) ? e : e + op.length - size;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > op.length) {
+            int capacity = Math.max(op.length * 2, n);
+            int tail = size - gapStart;
+            op = grow(op, capacity, tail);
+            arg = grow(arg, capacity, tail);
+            pos = grow(pos, capacity, tail);
+        }
+    }
+
+    private static int[] grow(int[] array, int capacity, int tail) {
+        int[] grown = Arrays.copyOf(array, capacity);
+        System.arraycopy(array, array.length - tail, grown, capacity - tail, tail);
+        return grown;
+    }
+
+    /**
+     * Moves the gap to just before an event, shifting the token indices of the events that cross it.
+     */
+    private void moveGap(int e) {
+        int gap = op.length - size;
+        if (e < gapStart) {
+            int n = gapStart - e;
+            move(e, e + gap, n);
+            for (int k = e + gap; k < e + gap + n; k++)
+                pos[k] -= posShift;
+        } else if (e > gapStart) {
+            int n = e - gapStart;
+            move(gapStart + gap, gapStart, n);
+            for (int k = gapStart; k < e; k++)
+                pos[k] += posShift;
+        }
+        gapStart = e;
+        if (gapStart == size)
+            posShift = 0;
+    }
+
+    private void move(int from, int to, int n) {
+        System.arraycopy(op, from, op, to, n);
+        System.arraycopy(arg, from, arg, to, n);
+        System.arraycopy(pos, from, pos, to, n);
+    }
+
+    private int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    @Override
+    public void terminal(int symbol, String text, int line) {
+        add(TOKEN, 0, nextToken++);
+    }
+
+    @Override
+    public void terminal(int symbol, char[] text, int start, int length, int line) {
+        add(TOKEN, 0, nextToken++);
+    }
+
+    @Override
+    public void commenceNonterminal(String name) {
+        add(BEGIN, nameId(name), nextToken);
+    }
+
+    @Override
+    public void finishNonterminal(String name) {
+        add(END, nameId(name), nextToken);
+    }
+
+    @Override
+    public void success() {
+        success = true;
+    }
+
+    @Override
+    public void message(String text) {
+        add(MESSAGE, messages.size(), nextToken);
+        messages.add(text);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * @return true if the parse recorded reported success
+     */
+    public boolean succeeded() {
+        return success;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int op(int e) {
+        return op[slot(e)];
+    }
+
+    public int pos(int e) {
+        return (e < gapStart) ? pos[e] : pos[slot(e)] + posShift;
+    }
+
+    /**
+     * @return The name of the nonterminal a BEGIN or END event belongs to
+     */
+    public String name(int e) {
+        return names.get(arg[slot(e)]);
+    }
+
+    /**
+     * Finds the event of the terminal for a token.
+     *
+     * @param token The index of the token
+     * @return The index of its event, or -1 if the token was never accepted
+     */
+    public int findTerminal(int token) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pos(mid) < token)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        for (int e = low; e < size && pos(e) == token; e++)
+            if (op(e) == TOKEN)
+                return e;
+        return -1;
+    }
+
+    /**
+     * Finds the BEGIN of the nonterminal that encloses an event.
+     *
+     * @param e The index of the event
+     * @return The index of the enclosing BEGIN event, or -1 at the top level
+     */
+    public int parent(int e) {
+        int depth = 0;
+        for (int i = e - 1; i >= 0; i--) {
+            int o = op(i);
+            if (o == END)
+                depth++;
+            else if (o == BEGIN && depth-- == 0)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the BEGIN that matches an END event.
+     *
+     * @param end The index of the END event
+     * @return The index of the matching BEGIN event
+     */
+    public int matchingBegin(int end) {
+        int depth = 0;
+        for (int i = end - 1; i >= 0; i--) {
+            int o = op(i);
+            if (o == END)
+                depth++;
+            else if (o == BEGIN && depth-- == 0)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the END that matches a BEGIN event.
+     *
+     * @param begin The index of the BEGIN event
+     * @return The index of the matching END event, or -1 if the nonterminal was never finished
+     */
+    public int matchingEnd(int begin) {
+        int depth = 0;
+        for (int i = begin + 1; i < size; i++) {
+            int o = op(i);
+            if (o == BEGIN)
+                depth++;
+            else if (o == END && depth-- == 0)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Replaces a run of events with every event of another log, moving the token indices
+     * of the events after the run.
+     *
+     * @param from        The index of the first event to replace
+     * @param to          The index just after the last event to replace
+     * @param replacement The events to put in their place, sharing this log's name table
+     * @param tokenDelta  The number of tokens the events after the run have moved by
+     */
+    public void replace(int from, int to, ParseEventLog replacement, int tokenDelta) {
+        moveGap(to);
+        size -= to - from;
+        gapStart = from;
+        posShift += tokenDelta;
+
+        int k = replacement.size;
+        ensureCapacity(size + k);
+        for (int i = 0; i < k; i++) {
+            int r = replacement.slot(i);
+            op[from + i] = replacement.op[r];
+            arg[from + i] = replacement.arg[r];
+            pos[from + i] = replacement.pos(i);
+        }
+        size += k;
+        gapStart += k;
+    }
+
+    /**
+     * Replays the recorded events into another sink, taking terminals from the token stream
+     * the parse read.
+     *
+     * @param sink   The sink to replay into
+     * @param tokens The tokens of the parse
+     */
+    public void replay(TraceSink sink, TokenStream tokens) {
+        for (int e = 0; e < size; e++) {
+            int a = arg[slot(e)];
+            switch (op(e)) {
+                case BEGIN:
+                    sink.commenceNonterminal(names.get(a));
+                    break;
+                case END:
+                    sink.finishNonterminal(names.get(a));
+                    break;
+                case TOKEN:
+                    int t = pos(e);
+                    sink.terminal(tokens.symbol(t), tokens.text(), tokens.start(t), tokens.length(t), tokens.line(t));
+                    break;
+                default:
+                    sink.message(messages.get(a));
+                    break;
+            }
+        }
+        if (success)
+            sink.success();
+    }
+
+}
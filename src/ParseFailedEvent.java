@@ -0,0 +1,34 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event for each syntax error reported in a parse by Compile, whether it stopped
+ * the parse or was recovered from. Disabled unless a recording turns it on.
+ */
+@Name("recogniser.ParseFailed")
+@Label("Parse Failed")
+@Category({"Recursive Descent Recogniser"})
+@Description("A syntax error reported for a program file")
+@Enabled(false)
+@StackTrace(false)
+class ParseFailedEvent extends jdk.jfr.Event {
+
+    @Label("File")
+    String fileName;
+
+    @Label("Error Depth")
+    @Description("The number of nonterminals the error was passed up through, the error itself included")
+    int depth;
+
+    @Label("Message")
+    @Description("The innermost error, on one line")
+    String message;
+
+    @Label("Recovered")
+    boolean recovered;
+
+}
@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts where parses spend their time: for each nonterminal the calls, the tokens consumed and
+ * the nanoseconds taken, and for each kind of token the number accepted and the nanoseconds
+ * taken to accept them.
+ * <p>
+ * A parser is profiled by giving it a profiler with setProfiler. Its code generator is then
+ * wrapped in one that times each nonterminal from commenceNonterminal to finishNonterminal, and
+ * SyntaxAnalyser times each call of acceptTerminal. A parser with no profiler runs exactly as
+ * before, apart from a null check per token. Nonterminals an error leaves unfinished are not
+ * counted.
+ * <p>
+ * One profiler can be shared by parsers on any number of threads. Its counters are LongAdders,
+ * which spread updates from different threads over separate cells. The counts can be read
+ * through JMX once register() has been called, and dumped as text to a stream every so often.
+ */
+public class ParseProfiler implements ParseProfilerMXBean {
+
+    /**
+     * The name the profiler is registered with in the platform MBean server.
+     */
+    public static final String OBJECT_NAME = "RecursiveDescentRecogniser:type=ParseProfiler";
+
+    private static final int TOKEN_KINDS = Grammar.terminalCount();
+
+    /**
+     * The counters of one nonterminal or kind of token.
+     */
+    private static class Counters {
+
+        final LongAdder calls = new LongAdder();
+        final LongAdder tokens = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        void reset() {
+            calls.reset();
+            tokens.reset();
+            nanos.reset();
+        }
+    }
+
+    private final Map<String, Counters> nonterminals = new ConcurrentHashMap<>();
+    private final Counters[] tokenKinds = new Counters[TOKEN_KINDS];
+    private ScheduledExecutorService dumper;
+
+    public ParseProfiler() {
+        for (int i = 0; i < TOKEN_KINDS; i++)
+            tokenKinds[i] = new Counters();
+    }
+
+    /**
+     * @return The counters of a nonterminal, made the first time it is seen
+     */
+    private Counters nonterminal(String name) {
+        return nonterminals.computeIfAbsent(name, n -> new Counters());
+    }
+
+    /**
+     * Counts a token accepted by a parser.
+     *
+     * @param symbol The kind of token, a class constant from Token
+     * @param nanos  The time taken to accept it
+     */
+    void terminal(int symbol, long nanos) {
+        Counters c = tokenKinds[symbol];
+        c.calls.increment();
+        c.nanos.add(nanos);
+    }
+
+    /**
+     * @param generate The code generator of a parse
+     * @return A code generator that counts the nonterminals of the parse and passes every event
+     * on to the given one
+     */
+    AbstractGenerate wrap(AbstractGenerate generate) {
+        return new ProfilingGenerate(generate);
+    }
+
+    /**
+     * Registers the profiler with the platform MBean server under OBJECT_NAME.
+     *
+     * @throws JMException if it cannot be registered, such as when another profiler already is
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Takes the profiler out of the platform MBean server again.
+     *
+     * @throws JMException if it is not registered
+     */
+    public void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Writes the report to a stream at a fixed rate, on a daemon thread, until stopDump().
+     *
+     * @param out    The stream to write to
+     * @param millis The time between reports
+     */
+    public synchronized void startDump(PrintStream out, long millis) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "parse-profile-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> out.print(getReport()), millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the reports started by startDump.
+     */
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getNonterminalCalls() {
+        return nonterminalMap(c -> c.calls);
+    }
+
+    @Override
+    public Map<String, Long> getNonterminalTokens() {
+        return nonterminalMap(c -> c.tokens);
+    }
+
+    @Override
+    public Map<String, Long> getNonterminalNanos() {
+        return nonterminalMap(c -> c.nanos);
+    }
+
+    @Override
+    public Map<String, Long> getTokenCounts() {
+        return tokenMap(c -> c.calls);
+    }
+
+    @Override
+    public Map<String, Long> getTokenNanos() {
+        return tokenMap(c -> c.nanos);
+    }
+
+    private Map<String, Long> nonterminalMap(Function<Counters, LongAdder> counter) {
+        Map<String, Long> map = new TreeMap<>();
+        nonterminals.forEach((name, c) -> map.put(name, counter.apply(c).sum()));
+        return map;
+    }
+
+    private Map<String, Long> tokenMap(Function<Counters, LongAdder> counter) {
+        Map<String, Long> map = new TreeMap<>();
+        for (int i = 0; i < TOKEN_KINDS; i++) {
+            long n = counter.apply(tokenKinds[i]).sum();
+            if (n > 0)
+                map.put(Token.getName(i), n);
+        }
+        return map;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("parse profile at ").append(LocalTime.now().truncatedTo(ChronoUnit.SECONDS)).append('\n');
+        report.append(String.format("%-24s %12s %14s %12s %10s%n", "nonterminal", "calls", "tokens", "total ms", "ns/call"));
+        new TreeMap<>(nonterminals).forEach((name, c) -> {
+            long calls = c.calls.sum();
+            long nanos = c.nanos.sum();
+            report.append(String.format("%-24s %12d %14d %12.3f %10d%n", name, calls, c.tokens.sum(),
+                    nanos / 1e6, calls == 0 ? 0 : nanos / calls));
+        });
+        report.append(String.format("%-24s %12s %14s %12s %10s%n", "token", "count", "", "total ms", "ns/token"));
+        for (int i = 0; i < TOKEN_KINDS; i++) {
+            long calls = tokenKinds[i].calls.sum();
+            if (calls == 0)
+                continue;
+            long nanos = tokenKinds[i].nanos.sum();
+            report.append(String.format("%-24s %12d %14s %12.3f %10d%n", Token.getName(i), calls, "",
+                    nanos / 1e6, nanos / calls));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        nonterminals.values().forEach(Counters::reset);
+        for (Counters c : tokenKinds)
+            c.reset();
+    }
+
+    /**
+     * Times the nonterminals of one parse, passing every event on to the code generator it wraps.
+     */
+    private class ProfilingGenerate extends AbstractGenerate {
+
+        private final AbstractGenerate generate;
+
+        /* The nonterminals started but not yet finished, innermost last, with when each started
+           and the number of terminals before it */
+        private Counters[] open = new Counters[64];
+        private long[] started = new long[64];
+        private long[] tokensBefore = new long[64];
+        private int depth;
+        private long terminals;
+
+        /* The counters of the nonterminals seen so far, found by the reference of their name */
+        private String[] names = new String[32];
+        private Counters[] counters = new Counters[32];
+        private int nameCount;
+
+        ProfilingGenerate(AbstractGenerate generate) {
+            this.generate = generate;
+            sink = generate.sink;
+        }
+
+        private Counters countersOf(String name) {
+            // The parsers pass the same String constants every time, so compare references first
+            for (int i = 0; i < nameCount; i++)
+                if (names[i] == name)
+                    return counters[i];
+            if (nameCount == names.length) {
+                names = Arrays.copyOf(names, nameCount * 2);
+                counters = Arrays.copyOf(counters, nameCount * 2);
+            }
+            names[nameCount] = name;
+            return counters[nameCount++] = nonterminal(name);
+        }
+
+        @Override
+        public void insertTerminal(Token token) {
+            terminals++;
+            generate.insertTerminal(token);
+        }
+
+        @Override
+        public void insertTerminal(TokenStream tokens, int i) {
+            terminals++;
+            generate.insertTerminal(tokens, i);
+        }
+
+        @Override
+        public void commenceNonterminal(String name) {
+            if (depth == open.length) {
+                open = Arrays.copyOf(open, depth * 2);
+                started = Arrays.copyOf(started, depth * 2);
+                tokensBefore = Arrays.copyOf(tokensBefore, depth * 2);
+            }
+            open[depth] = countersOf(name);
+            tokensBefore[depth] = terminals;
+            started[depth++] = System.nanoTime();
+            generate.commenceNonterminal(name);
+        }
+
+        @Override
+        public void finishNonterminal(String name) {
+            generate.finishNonterminal(name);
+            long now = System.nanoTime();
+            Counters c = countersOf(name);
+            // Nonterminals an error was recovered from inside were never finished; drop them
+            while (depth > 0) {
+                depth--;
+                if (open[depth] == c) {
+                    c.calls.increment();
+                    c.tokens.add(terminals - tokensBefore[depth]);
+                    c.nanos.add(now - started[depth]);
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void reportSuccess() {
+            generate.reportSuccess();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            depth = 0;
+            generate.flush();
+        }
+
+        @Override
+        public void reportError(Token token, String explanatoryMessage) throws CompilationException {
+            generate.reportError(token, explanatoryMessage);
+        }
+
+        @Override
+        public void reportError(Token token, CompilationException error) throws CompilationException {
+            generate.reportError(token, error);
+        }
+    }
+
+}
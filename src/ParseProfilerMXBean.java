@@ -0,0 +1,44 @@
+import java.util.Map;
+
+/**
+ * The management interface of a ParseProfiler, as published through JMX. Every map is keyed by
+ * the name of a nonterminal or token kind.
+ */
+public interface ParseProfilerMXBean {
+
+    /**
+     * @return The number of times each nonterminal was parsed to its end
+     */
+    Map<String, Long> getNonterminalCalls();
+
+    /**
+     * @return The tokens consumed inside each nonterminal, all its calls added together
+     */
+    Map<String, Long> getNonterminalTokens();
+
+    /**
+     * @return The nanoseconds spent inside each nonterminal, children included
+     */
+    Map<String, Long> getNonterminalNanos();
+
+    /**
+     * @return The number of tokens of each kind accepted
+     */
+    Map<String, Long> getTokenCounts();
+
+    /**
+     * @return The nanoseconds spent accepting tokens of each kind, reading the next one included
+     */
+    Map<String, Long> getTokenNanos();
+
+    /**
+     * @return The counts as a text table
+     */
+    String getReport();
+
+    /**
+     * Sets every count back to zero.
+     */
+    void reset();
+
+}
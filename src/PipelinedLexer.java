@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A source of tokens that reads ahead of the parser on a thread of its own, so that lexing and
+ * parsing a large file overlap instead of taking turns on one core.
+ * <p>
+ * The lexer thread runs another source of tokens, such as a LexicalAnalyser, in token-stream mode,
+ * filling batches of tokens in a ring that it shares with the parser's thread. The ring has a
+ * single producer and a single consumer, so all they share is a count each: the batches published
+ * and the batches consumed. Each is only written by its own thread, with release semantics, and
+ * read by the other with acquire semantics; there are no locks. A batch is a TokenStream that is
+ * cleared and filled again each time round the ring, so no objects are made per token, other than
+ * by getNextToken(). A thread that finds the ring full or empty spins briefly, then yields, then
+ * parks for a while.
+ * <p>
+ * One PipelinedLexer reads any number of files in turn, with the same ring and the same lexer
+ * thread. Once close() has returned the lexer thread has finished with the source, which can then
+ * be reset and handed back by reset() for the next file; in between the thread is parked. The
+ * thread is started by the first reset() and runs until shutdown().
+ * <p>
+ * The batches are filled by a platform thread rather than a virtual one, which the JDK this
+ * is built for does not have.
+ */
+public class PipelinedLexer implements TokenSource {
+
+    /**
+     * The number of tokens in a batch, so that the threads only meet once a batch.
+     */
+    private static final int BATCH_SIZE = 1024;
+    /**
+     * The number of batches in the ring, a power of two.
+     */
+    private static final int SLOTS = 8;
+    private static final int MASK = SLOTS - 1;
+
+    private TokenSource source;
+    private Thread lexer;
+    private final TokenStream[] ring = new TokenStream[SLOTS];
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    /* The sources handed to the lexer thread, and those it has finished with */
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+    private volatile boolean closed;
+    private volatile boolean stopped;
+    private volatile Throwable failure;
+
+    /* The parser's side: the batch being read, the next token in it, and the number taken */
+    private TokenStream current;
+    private int next;
+    private long taken;
+    /* Once EOF has been read it is given again and again, as by LexicalAnalyser */
+    private boolean ended;
+    private int endLine;
+    private int endOffset;
+
+    public PipelinedLexer() {
+        for (int i = 0; i < SLOTS; i++)
+            ring[i] = new TokenStream(BATCH_SIZE);
+    }
+
+    /**
+     * Starts reading ahead from a source, starting the lexer thread if it is not running.
+     *
+     * @param source The lexical analyser, or other source of tokens, to read from on the lexer thread
+     * @throws IllegalStateException if the last source has not been closed
+     */
+    public void reset(TokenSource source) {
+        if (finished.getAcquire() != started.get())
+            throw new IllegalStateException("the pipelined lexer has not been closed");
+        this.source = source;
+        published.set(0);
+        consumed.set(0);
+        closed = false;
+        failure = null;
+        current = null;
+        next = 0;
+        taken = 0;
+        ended = false;
+        if (lexer == null) {
+            stopped = false;
+            lexer = new Thread(this::serve, "pipelined-lexer");
+            lexer.setDaemon(true);
+            lexer.start();
+        }
+        started.setRelease(started.get() + 1);
+        LockSupport.unpark(lexer);
+    }
+
+    /**
+     * The body of the lexer thread: reads each source it is handed, parking in between.
+     */
+    private void serve() {
+        long run = finished.get();
+        while (true) {
+            while (started.getAcquire() == run) {
+                if (stopped)
+                    return;
+                LockSupport.park(this);
+            }
+            produce();
+            finished.setRelease(++run);
+        }
+    }
+
+    /**
+     * Fills batches from the source until EOF, waiting while the ring is full.
+     */
+    private void produce() {
+        try {
+            long seq = 0;
+            boolean eof = false;
+            while (!eof && !closed) {
+                int spins = 0;
+                while (seq - consumed.getAcquire() == SLOTS) {
+                    if (closed)
+                        return;
+                    idle(spins++);
+                }
+                TokenStream batch = ring[(int) seq & MASK];
+                batch.clear();
+                do {
+                    source.getNextToken(batch);
+                    eof = batch.symbol(batch.size() - 1) == Token.eofSymbol;
+                } while (!eof && batch.size() < BATCH_SIZE);
+                published.setRelease(++seq);
+            }
+        } catch (Throwable e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Waits a little longer each time it is called in a row.
+     */
+    private static void idle(int spins) {
+        if (spins < 100)
+            Thread.onSpinWait();
+        else if (spins < 200)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(50_000);
+    }
+
+    /**
+     * Moves on to the next batch if the current one has been read, waiting for the lexer thread
+     * to publish it.
+     */
+    private void fill() throws IOException {
+        if (current != null && next < current.size())
+            return;
+        if (current != null) {
+            // Hand the batch back only now that every token has been copied out of it
+            consumed.setRelease(++taken);
+            current = null;
+        }
+        int spins = 0;
+        while (published.getAcquire() == taken) {
+            Throwable e = failure;
+            if (e != null) {
+                if (e instanceof IOException)
+                    throw (IOException) e;
+                throw new IOException("the lexer thread failed", e);
+            }
+            if (closed)
+                throw new InterruptedIOException("the pipelined lexer has been closed");
+            idle(spins++);
+        }
+        current = ring[(int) taken & MASK];
+        next = 0;
+    }
+
+    /**
+     * Notes EOF once it has been read, to give again from then on.
+     */
+    private void noteEnd(int i) {
+        if (current.symbol(i) == Token.eofSymbol) {
+            ended = true;
+            endLine = current.line(i);
+            endOffset = current.offset(i);
+        }
+    }
+
+    @Override
+    public Token getNextToken() throws IOException {
+        if (ended)
+            return new Token(Token.eofSymbol, Token.getText(Token.eofSymbol), endLine);
+        fill();
+        Token token = current.getToken(next);
+        noteEnd(next++);
+        return token;
+    }
+
+    @Override
+    public void getNextToken(TokenStream tokens) throws IOException {
+        if (ended) {
+            tokens.add(Token.eofSymbol, null, endLine, endOffset, endOffset);
+            return;
+        }
+        fill();
+        tokens.add(current, next);
+        noteEnd(next++);
+    }
+
+    /**
+     * Stops the lexer thread reading, if it has not already reached EOF, such as when the parse
+     * stopped at an error, and waits for it to finish with the source.
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void close() throws InterruptedIOException {
+        closed = true;
+        int spins = 0;
+        while (finished.getAcquire() != started.get()) {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("interrupted waiting for the lexer thread");
+            idle(spins++);
+        }
+    }
+
+    /**
+     * Stops the lexer thread, once it has finished with any source it is reading, and waits for
+     * it to end. The next reset() starts another.
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void shutdown() throws InterruptedIOException {
+        if (lexer == null)
+            return;
+        closed = true;
+        stopped = true;
+        LockSupport.unpark(lexer);
+        try {
+            lexer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the lexer thread");
+        }
+        lexer = null;
+    }
+
+}
@@ -0,0 +1,44 @@
+import java.io.PrintStream;
+
+/**
+ * A TextTraceSink that prints each line to a PrintStream as soon as it is complete.
+ */
+public class PrintStreamSink extends TextTraceSink {
+
+    private final PrintStream out;
+    private final StringBuilder line = new StringBuilder();
+
+    public PrintStreamSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public TextTraceSink append(String s) {
+        line.append(s);
+        return this;
+    }
+
+    @Override
+    public TextTraceSink append(char[] c, int start, int length) {
+        line.append(c, start, length);
+        return this;
+    }
+
+    @Override
+    public TextTraceSink append(int i) {
+        line.append(i);
+        return this;
+    }
+
+    @Override
+    public void endLine() {
+        out.println(line);
+        line.setLength(0);
+    }
+
+    @Override
+    public void flush() {
+        out.flush();
+    }
+
+}
@@ -0,0 +1,396 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes synthetic programs of any size for load and scale testing. The same seed always gives
+ * the same program.
+ * <p>
+ * A valid program uses every construct SyntaxAnalyser accepts: assignments of expressions and
+ * string constants, procedure calls, if statements with and without else, and while loops,
+ * nested up to a given depth, with comments and varied layout. A parenthesised factor and the
+ * do ... until statement are in the grammar but SyntaxAnalyser never parses them, so they only
+ * appear as the mistake in a broken program. A broken program is a valid one with exactly one
+ * mistake in it, at a random place.
+ * <p>
+ * The program is written out as it is generated, so its size is limited only by the disk.
+ */
+public class ProgramGenerator {
+
+    /* The mistakes a broken program can have */
+    private static final int MISSING_SEMICOLON = 0;
+    private static final int PARENTHESES = 1;
+    private static final int DO_UNTIL = 2;
+    private static final int MISSING_END = 3;
+    private static final int BAD_CHARACTER = 4;
+    private static final int MISSING_OPERAND = 5;
+    private static final int MISTAKES = 6;
+
+    private static final String[] OPERATORS = {"=", "/=", "<", ">", "<=", ">="};
+    private static final String[] WORDS = {"the", "result", "is", "total", "count", "value", "of", "a", "next", "line"};
+
+    private final Random random;
+    private final String[] identifiers;
+    private int maxDepth = 4;
+
+    private Writer out;
+    private long written;
+    private boolean broken;
+    private int mistake = -1;
+
+    /**
+     * @param seed The seed everything about the program follows from
+     */
+    public ProgramGenerator(long seed) {
+        random = new Random(seed);
+        identifiers = new String[64];
+        for (int i = 0; i < identifiers.length; i++) {
+            String name;
+            do {
+                StringBuilder word = new StringBuilder();
+                int letters = 1 + random.nextInt(6);
+                for (int k = 0; k < letters; k++)
+                    word.append((char) ('a' + random.nextInt(26)));
+                if (random.nextBoolean())
+                    word.append(random.nextInt(100));
+                name = word.toString();
+            } while (LexicalAnalyser.reservedWordSymbol(name) != Token.identifier);
+            identifiers[i] = name;
+        }
+    }
+
+    /**
+     * @param maxDepth The deepest that statements are nested inside one another
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Writes a valid program of about a given size: statements are added until it is at least
+     * that long.
+     *
+     * @param out         The writer to write the program to
+     * @param targetBytes The size to aim for
+     * @throws IOException if the program cannot be written
+     */
+    public void generate(Writer out, long targetBytes) throws IOException {
+        generate(out, targetBytes, false);
+    }
+
+    /**
+     * Writes a program of about a given size, either valid or with one mistake in it.
+     *
+     * @param out         The writer to write the program to
+     * @param targetBytes The size to aim for
+     * @param broken      True to put a syntax error into the program
+     * @throws IOException if the program cannot be written
+     */
+    public void generate(Writer out, long targetBytes, boolean broken) throws IOException {
+        this.out = out;
+        this.broken = broken;
+        written = 0;
+        mistake = -1;
+        // The statement at the first line break after this many bytes is the broken one
+        long breakAt = broken ? (long) (random.nextDouble() * targetBytes) : Long.MAX_VALUE;
+
+        write("begin");
+        comment();
+        newLine(0);
+        boolean first = true;
+        do {
+            if (!first) {
+                if (mistake == MISSING_SEMICOLON && this.broken) {
+                    // Only now that another statement follows is the missing ';' an error
+                    this.broken = false;
+                    newLine(0);
+                } else {
+                    write(" ;");
+                    comment();
+                    newLine(0);
+                }
+            }
+            first = false;
+            if (this.broken && mistake < 0 && written >= breakAt)
+                mistake = random.nextInt(MISTAKES);
+            statement(0);
+            // Carry on past the size until the mistake has been made
+        } while (written < targetBytes || this.broken);
+        newLine(0);
+        write("end");
+        newLine(0);
+        out.flush();
+    }
+
+    /**
+     * @return The number of characters written so far
+     */
+    public long written() {
+        return written;
+    }
+
+    private void statement(int depth) throws IOException {
+        if (broken && mistake >= 0 && mistake != MISSING_SEMICOLON) {
+            brokenStatement(depth);
+            return;
+        }
+        int choice = random.nextInt((depth < maxDepth) ? 10 : 6);
+        if (choice < 4) {
+            assignment();
+        } else if (choice < 6) {
+            call();
+        } else if (choice < 8) {
+            ifStatement(depth);
+        } else {
+            whileLoop(depth);
+        }
+    }
+
+    /**
+     * Writes a statement with the mistake in it. Only one is ever written.
+     */
+    private void brokenStatement(int depth) throws IOException {
+        int kind = mistake;
+        broken = false;
+        switch (kind) {
+            case PARENTHESES:
+                write(identifier() + " := " + identifier() + " * (");
+                expression();
+                write(")");
+                break;
+            case DO_UNTIL:
+                write("do");
+                statements(depth + 1);
+                newLine(depth);
+                write("until ");
+                condition();
+                break;
+            case MISSING_END:
+                write("while ");
+                condition();
+                write(" loop");
+                statements(depth + 1);
+                newLine(depth);
+                write("end");
+                break;
+            case BAD_CHARACTER:
+                write(identifier() + " := " + identifier() + " # " + number());
+                break;
+            default:
+                write(identifier() + " := " + identifier() + " +");
+                break;
+        }
+    }
+
+    private void statements(int depth) throws IOException {
+        int n = 1 + random.nextInt(4);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                write(" ;");
+                comment();
+            }
+            newLine(depth);
+            statement(depth);
+        }
+    }
+
+    private void assignment() throws IOException {
+        write(identifier());
+        write(" := ");
+        if (random.nextInt(6) == 0)
+            write(string());
+        else
+            expression();
+    }
+
+    private void expression() throws IOException {
+        int terms = 1 + random.nextInt(4);
+        for (int i = 0; i < terms; i++) {
+            if (i > 0)
+                write(random.nextBoolean() ? " + " : " - ");
+            int factors = 1 + random.nextInt(3);
+            for (int k = 0; k < factors; k++) {
+                if (k > 0)
+                    write(random.nextBoolean() ? " * " : " / ");
+                write(random.nextInt(3) == 0 ? number() : identifier());
+            }
+        }
+    }
+
+    /**
+     * Writes a call. Each argument after a comma is followed by another, as SyntaxAnalyser wants.
+     */
+    private void call() throws IOException {
+        write("call " + identifier() + "(" + identifier());
+        int pairs = random.nextInt(3);
+        for (int i = 0; i < pairs; i++)
+            write(", " + identifier() + " " + identifier());
+        write(")");
+    }
+
+    private void ifStatement(int depth) throws IOException {
+        write("if ");
+        condition();
+        write(" then");
+        statements(depth + 1);
+        if (random.nextBoolean()) {
+            newLine(depth);
+            write("else");
+            statements(depth + 1);
+        }
+        newLine(depth);
+        write("end if");
+    }
+
+    private void whileLoop(int depth) throws IOException {
+        write("while ");
+        condition();
+        write(" loop");
+        statements(depth + 1);
+        newLine(depth);
+        write("end loop");
+    }
+
+    private void condition() throws IOException {
+        write(identifier() + " " + OPERATORS[random.nextInt(OPERATORS.length)] + " ");
+        int operand = random.nextInt(5);
+        write(operand == 0 ? string() : operand == 1 ? number() : identifier());
+    }
+
+    private String identifier() {
+        return identifiers[random.nextInt(identifiers.length)];
+    }
+
+    private String number() {
+        int whole = random.nextInt(1000);
+        return (random.nextInt(4) == 0) ? whole + "." + random.nextInt(100) : Integer.toString(whole);
+    }
+
+    private String string() {
+        StringBuilder text = new StringBuilder("\"");
+        int words = 1 + random.nextInt(4);
+        for (int i = 0; i < words; i++)
+            text.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        return text.append('"').toString();
+    }
+
+    private void comment() throws IOException {
+        if (random.nextInt(8) == 0)
+            write("\t\t-- " + WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]);
+    }
+
+    private void newLine(int depth) throws IOException {
+        write("\n");
+        for (int i = 0; i < depth; i++)
+            write("\t");
+    }
+
+    private void write(String s) throws IOException {
+        out.write(s);
+        written += s.length();
+    }
+
+    /**
+     * @return The seed of the file with a given number in a corpus
+     */
+    private static long seedFor(long seed, int file) {
+        return seed ^ (file * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Parses a size such as 500, 64k, 10m or 2g.
+     */
+    private static long size(String text) {
+        char unit = Character.toLowerCase(text.charAt(text.length() - 1));
+        long scale = (unit == 'k') ? 1L << 10 : (unit == 'm') ? 1L << 20 : (unit == 'g') ? 1L << 30 : 1;
+        return Long.parseLong(scale == 1 ? text : text.substring(0, text.length() - 1)) * scale;
+    }
+
+    /**
+     * Usage: ProgramGenerator [-seed n] [-size n[k|m|g]] [-depth n] [-broken fraction] [-files n -dir directory [-threads n]]
+     * <p>
+     * Writes one program to standard output, or a corpus of files named as Compile reads them,
+     * program0 upwards, to a directory. Each file has its own seed, from the seed and its number,
+     * so any one of them can be made again on its own, and they can be written on several threads.
+     * The given fraction of them are broken.
+     */
+    public static void main(String[] args) throws Exception {
+        long seed = 254;
+        long size = 4 << 10;
+        int depth = 4;
+        double brokenFraction = 0;
+        int files = 1;
+        int threads = 1;
+        String dir = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-seed") && i + 1 < args.length)
+                seed = Long.parseLong(args[++i]);
+            else if (args[i].equals("-size") && i + 1 < args.length)
+                size = size(args[++i]);
+            else if (args[i].equals("-depth") && i + 1 < args.length)
+                depth = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-broken") && i + 1 < args.length)
+                brokenFraction = Double.parseDouble(args[++i]);
+            else if (args[i].equals("-files") && i + 1 < args.length)
+                files = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-dir") && i + 1 < args.length)
+                dir = args[++i];
+            else if (args[i].equals("-threads") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else {
+                System.err.println("usage: ProgramGenerator [-seed n] [-size n[k|m|g]] [-depth n] [-broken fraction] [-files n -dir directory [-threads n]]");
+                System.exit(1);
+            }
+        }
+
+        if (dir == null) {
+            ProgramGenerator generator = new ProgramGenerator(seed);
+            generator.setMaxDepth(depth);
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), 1 << 16);
+            generator.generate(out, size, new Random(~seed).nextDouble() < brokenFraction);
+            return;
+        }
+
+        Path directory = Files.createDirectories(Paths.get(dir));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            long baseSeed = seed;
+            long target = size;
+            int maxDepth = depth;
+            double fraction = brokenFraction;
+            int count = files;
+            int stride = threads;
+            done.add(pool.submit(() -> {
+                for (int f = first; f < count; f += stride) {
+                    long fileSeed = seedFor(baseSeed, f);
+                    ProgramGenerator generator = new ProgramGenerator(fileSeed);
+                    generator.setMaxDepth(maxDepth);
+                    boolean broken = new Random(~fileSeed).nextDouble() < fraction;
+                    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(directory.resolve("program" + f).toFile()), StandardCharsets.US_ASCII), 1 << 16)) {
+                        generator.generate(out, target, broken);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : done)
+            f.get();
+        pool.shutdown();
+    }
+
+}
@@ -0,0 +1,262 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on-disk cache of the output of compiling programs, so that a program compiled before does
+ * not have to be lexed and parsed again.
+ * <p>
+ * Entries are addressed by a SHA-256 hash of the bytes of the program, its name, which appears
+ * in error messages, and a description of the options that change the output. An entry holds the
+ * trace and the results of the compile, exactly as they were written, so that a hit gives the
+ * same output as a compile would.
+ * <p>
+ * Each entry is a file in the cache directory named by its key. It is written to a temporary
+ * file first and then moved into place in one step, so any number of threads or processes can
+ * update the cache at once and a reader only ever sees whole entries. Once the entries add up to
+ * more than the size limit, the least recently used are deleted. The order of use is kept in
+ * memory and in the entries' modification times, so it carries over from one run to the next.
+ */
+public class ResultCache {
+
+    private static final int MAGIC = 0x52444331;
+    private static final int HEADER = 12;
+
+    private final Path dir;
+    private final long maxBytes;
+
+    /* The size of each entry, least recently used first, and their total */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Opens a cache, creating its directory if need be.
+     *
+     * @param dir      The directory the entries are kept in
+     * @param maxBytes The most bytes the entries may take up
+     * @throws IOException if the directory cannot be created or read
+     */
+    public ResultCache(Path dir, long maxBytes) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxBytes = maxBytes;
+
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files)
+                if (isKey(file.getFileName().toString()))
+                    found.add(file);
+        }
+        List<Map.Entry<Path, FileTime>> byAge = new ArrayList<>();
+        for (Path file : found) {
+            try {
+                byAge.add(Map.entry(file, Files.getLastModifiedTime(file)));
+            } catch (NoSuchFileException e) {
+                // Evicted by another process meanwhile
+            }
+        }
+        byAge.sort(Map.Entry.comparingByValue());
+        for (Map.Entry<Path, FileTime> entry : byAge) {
+            try {
+                long size = Files.size(entry.getKey());
+                entries.put(entry.getKey().getFileName().toString(), size);
+                totalBytes += size;
+            } catch (NoSuchFileException e) {
+                // As above
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Works out the key of a program from its bytes, read a block at a time.
+     *
+     * @param file    The program
+     * @param options A description of whatever else changes the output of compiling it
+     * @return The key, as hexadecimal
+     * @throws IOException if the program cannot be read
+     */
+    public String key(Path file, String options) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] block = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(block)) > 0)
+                digest.update(block, 0, n);
+        }
+        // The name and options go after the bytes, each with its length, so no two keys collide
+        for (String part : new String[]{file.toString(), options}) {
+            byte[] text = part.getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(4).putInt(text.length).array());
+            digest.update(text);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+
+    /**
+     * Looks up an entry, marking it as the most recently used.
+     *
+     * @param key The key of the entry
+     * @return The trace and the results, in that order, or null if there is no such entry
+     * @throws IOException if the entry exists but cannot be read
+     */
+    public byte[][] get(String key) throws IOException {
+        Path file = dir.resolve(key);
+        byte[] entry;
+        try {
+            entry = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            synchronized (this) {
+                Long size = entries.remove(key);
+                if (size != null)
+                    totalBytes -= size;
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(entry);
+        int traceLength = (entry.length >= HEADER && header.getInt() == MAGIC) ? header.getInt() : -1;
+        int resultsLength = (traceLength >= 0) ? header.getInt() : -1;
+        if (traceLength < 0 || resultsLength < 0 || (long) HEADER + traceLength + resultsLength != entry.length) {
+            // Not written by this class; leave it to be replaced
+            misses.incrementAndGet();
+            return null;
+        }
+
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                entries.put(key, (long) entry.length);
+                totalBytes += entry.length;
+            }
+        }
+        touch(file);
+        hits.incrementAndGet();
+        byte[] trace = new byte[traceLength];
+        byte[] results = new byte[resultsLength];
+        System.arraycopy(entry, HEADER, trace, 0, traceLength);
+        System.arraycopy(entry, HEADER + traceLength, results, 0, resultsLength);
+        return new byte[][]{trace, results};
+    }
+
+    /**
+     * Adds or replaces an entry, then evicts the least recently used entries while the cache is
+     * over its size limit. An entry bigger than the limit on its own is not kept.
+     *
+     * @param key     The key of the entry
+     * @param trace   The trace of the compile
+     * @param results The results of the compile
+     * @throws IOException if the entry cannot be written
+     */
+    public void put(String key, byte[] trace, byte[] results) throws IOException {
+        long size = (long) HEADER + trace.length + results.length;
+        if (size > maxBytes)
+            return;
+
+        Path temp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(MAGIC);
+                data.writeInt(trace.length);
+                data.writeInt(results.length);
+                data.write(trace);
+                data.write(results);
+                data.flush();
+            }
+            Files.move(temp, dir.resolve(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        touch(dir.resolve(key));
+
+        synchronized (this) {
+            Long old = entries.put(key, size);
+            totalBytes += size - ((old == null) ? 0 : old);
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is within its size limit.
+     */
+    private void evict() throws IOException {
+        List<String> victims = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                victims.add(entry.getKey());
+                totalBytes -= entry.getValue();
+                eldest.remove();
+            }
+        }
+        for (String key : victims)
+            Files.deleteIfExists(dir.resolve(key));
+    }
+
+    /**
+     * Marks an entry as just used. The time is set from the same clock for new entries and hits
+     * alike, as the file system may stamp writes with a coarser one.
+     */
+    private static void touch(Path file) throws IOException {
+        try {
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+        } catch (NoSuchFileException e) {
+            // Evicted by another process meanwhile, which is no matter
+        }
+    }
+
+    private static boolean isKey(String name) {
+        if (name.length() != 64)
+            return false;
+        for (int i = 0; i < name.length(); i++)
+            if (Character.digit(name.charAt(i), 16) < 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * @return The bytes the entries take up, as far as this cache knows
+     */
+    public synchronized long size() {
+        return totalBytes;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+}
@@ -0,0 +1,442 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A parser for the same grammar as SyntaxAnalyser that keeps its own stack of nonterminals on
+ * the heap instead of recursing, so that deeply nested parentheses or long argument lists
+ * cannot overflow the thread's stack.
+ * <p>
+ * Each handle method of SyntaxAnalyser becomes a frame holding the nonterminal and how far
+ * through it the parse has got. Calling a nonterminal pushes a frame and returning pops one.
+ * When an error is thrown, the frames are unwound one at a time, each wrapping the error exactly
+ * as the matching catch block of SyntaxAnalyser would, so the trace, the error chain and error
+ * recovery are all the same as SyntaxAnalyser's. Nesting deeper than the depth limit is
+ * reported as a syntax error.
+ */
+public class StackSyntaxAnalyser extends SyntaxAnalyser {
+
+    /**
+     * The depth limit unless one is set.
+     */
+    public static final int DEFAULT_DEPTH_LIMIT = 100000;
+
+    /* The nonterminals, each parsed by the code for one frame */
+    private static final int STATEMENT_PART = 0;
+    private static final int STATEMENT_LIST = 1;
+    private static final int STATEMENT = 2;
+    private static final int ASSIGNMENT = 3;
+    private static final int PROCEDURE = 4;
+    private static final int EXPRESSION = 5;
+    private static final int TERM = 6;
+    private static final int FACTOR = 7;
+    private static final int ARGUMENT_LIST = 8;
+    private static final int IF = 9;
+    private static final int WHILE = 10;
+    private static final int UNTIL = 11;
+
+    /* The nonterminal of each frame, and the point in it to carry on from */
+    private int[] nonterminal = new int[64];
+    private int[] state = new int[64];
+    private int depth;
+    private int depthLimit = DEFAULT_DEPTH_LIMIT;
+
+    public StackSyntaxAnalyser(String filename) {
+        super(filename);
+    }
+
+    /**
+     * @param filename The file to parse
+     * @param mapped   True to read the file through the memory-mapped lexer backend
+     */
+    public StackSyntaxAnalyser(String filename, boolean mapped) {
+        super(filename, mapped);
+    }
+
+    /**
+     * @param lex      The lexical analyser, or other source of tokens, to read tokens from
+     * @param filename The name of the file being parsed, for error messages
+     */
+    public StackSyntaxAnalyser(TokenSource lex, String filename) {
+        super(lex, filename);
+    }
+
+    /**
+     * Sets how many nonterminals may be open at once before the parse gives up.
+     *
+     * @param depthLimit The most frames on the stack
+     */
+    public void setDepthLimit(int depthLimit) {
+        this.depthLimit = depthLimit;
+    }
+
+    /**
+     * @throws IOException
+     * @throws CompilationException
+     */
+    @Override
+    public void _statementPart_() throws IOException, CompilationException {
+        depth = 0;
+        push(STATEMENT_PART);
+        while (depth > 0) {
+            try {
+                step();
+            } catch (CompilationException e) {
+                unwind(e);
+            }
+        }
+    }
+
+    /**
+     * Opens a frame for a nonterminal, or reports an error if the stack is as deep as allowed.
+     */
+    private void push(int n) throws CompilationException {
+        if (depth == depthLimit)
+            myGenerate.reportError(currentToken(), "line " + nextToken.lineNumber + " in " + filename
+                    + ":\n\t\t\t- Nesting deeper than " + depthLimit + " nonterminals.\n");
+        if (depth == nonterminal.length) {
+            nonterminal = Arrays.copyOf(nonterminal, depth * 2);
+            state = Arrays.copyOf(state, depth * 2);
+        }
+        nonterminal[depth] = n;
+        state[depth] = 0;
+        depth++;
+    }
+
+    /**
+     * Calls a nonterminal from the top frame, which carries on from a given point once it returns.
+     */
+    private void call(int resume, int n) throws CompilationException {
+        state[depth - 1] = resume;
+        push(n);
+    }
+
+    /**
+     * Runs the top frame until it calls another nonterminal or returns.
+     */
+    private void step() throws IOException, CompilationException {
+        int top = depth - 1;
+        switch (nonterminal[top]) {
+            case STATEMENT_PART:
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<statement part>");
+                    acceptTerminal(Token.beginSymbol);
+                    call(1, STATEMENT_LIST);
+                } else {
+                    state[top] = 2;
+                    acceptTerminal(Token.endSymbol);
+                    myGenerate.finishNonterminal("<statement part>");
+                    depth--;
+                }
+                break;
+
+            case STATEMENT_LIST:
+                // 1 and 4 are in a statement, 2 is between statements
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<statement list>");
+                    call(1, STATEMENT);
+                    break;
+                }
+                if (nextToken.symbol == Token.semicolonSymbol) {
+                    state[top] = 3;
+                    acceptTerminal(Token.semicolonSymbol);
+                    call(4, STATEMENT);
+                } else {
+                    myGenerate.finishNonterminal("<statement list>");
+                    depth--;
+                }
+                break;
+
+            case STATEMENT:
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<statement>");
+                    switch (nextToken.symbol) {
+                        case Token.callSymbol:
+                            call(1, PROCEDURE);
+                            break;
+                        case Token.identifier:
+                            call(1, ASSIGNMENT);
+                            break;
+                        case Token.whileSymbol:
+                            call(1, WHILE);
+                            break;
+                        case Token.ifSymbol:
+                            call(1, IF);
+                            break;
+                        case Token.untilSymbol:
+                            call(1, UNTIL);
+                            break;
+                        default:
+                            myGenerate.reportError(currentToken(), "Expected <if>, <assignment>, <until>, <while> or <procedure>");
+                            break;
+                    }
+                } else {
+                    state[top] = 2;
+                    myGenerate.finishNonterminal("<statement>");
+                    depth--;
+                }
+                break;
+
+            case ASSIGNMENT:
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<assignment statement>");
+                    acceptTerminal(Token.identifier);
+                    acceptTerminal(Token.becomesSymbol);
+                    if (nextToken.symbol != Token.stringConstant) {
+                        call(1, EXPRESSION);
+                        break;
+                    }
+                    acceptTerminal(Token.stringConstant);
+                }
+                state[top] = 2;
+                myGenerate.finishNonterminal("<assignment statement>");
+                depth--;
+                break;
+
+            case PROCEDURE:
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<procedure statement>");
+                    acceptTerminal(Token.callSymbol);
+                    acceptTerminal(Token.identifier);
+                    acceptTerminal(Token.leftParenthesis);
+                    call(1, ARGUMENT_LIST);
+                } else {
+                    state[top] = 2;
+                    acceptTerminal(Token.rightParenthesis);
+                    myGenerate.finishNonterminal("<procedure statement>");
+                    depth--;
+                }
+                break;
+
+            case EXPRESSION:
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<expression>");
+                    call(1, TERM);
+                } else if (nextToken.symbol == Token.plusSymbol || nextToken.symbol == Token.minusSymbol) {
+                    acceptTerminal(nextToken.symbol);
+                    call(1, TERM);
+                } else {
+                    state[top] = 2;
+                    myGenerate.finishNonterminal("<expression>");
+                    depth--;
+                }
+                break;
+
+            case TERM:
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<term>");
+                    call(1, FACTOR);
+                } else if (nextToken.symbol == Token.divideSymbol || nextToken.symbol == Token.timesSymbol) {
+                    acceptTerminal(nextToken.symbol);
+                    call(1, FACTOR);
+                } else {
+                    state[top] = 2;
+                    myGenerate.finishNonterminal("<term>");
+                    depth--;
+                }
+                break;
+
+            case FACTOR:
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<factor>");
+                    switch (nextToken.symbol) {
+                        case Token.identifier:
+                            acceptTerminal(Token.identifier);
+                            break;
+                        case Token.numberConstant:
+                            acceptTerminal(Token.numberConstant);
+                            break;
+                        case Token.leftParenthesis:
+                            acceptTerminal(Token.leftParenthesis);
+                            call(1, EXPRESSION);
+                            return;
+                        default:
+                            factorError();
+                            break;
+                    }
+                } else {
+                    // As in SyntaxAnalyser, a parenthesised expression carries on into the error
+                    acceptTerminal(Token.rightParenthesis);
+                    factorError();
+                }
+                state[top] = 2;
+                myGenerate.finishNonterminal("<factor>");
+                depth--;
+                break;
+
+            case ARGUMENT_LIST:
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<argument list>");
+                    acceptTerminal(Token.identifier);
+                    state[top] = 1;
+                }
+                if (nextToken.symbol == Token.commaSymbol) {
+                    acceptTerminal(Token.commaSymbol);
+                    acceptTerminal(Token.identifier);
+                    call(1, ARGUMENT_LIST);
+                } else {
+                    state[top] = 2;
+                    myGenerate.finishNonterminal("<argument list>");
+                    depth--;
+                }
+                break;
+
+            case IF:
+                // 1 is in the condition, 3 and 4 in a statement list
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<if statement>");
+                    acceptTerminal(Token.ifSymbol);
+                    state[top] = 1;
+                    condition();
+                    state[top] = 2;
+                    acceptTerminal(Token.thenSymbol);
+                    call(3, STATEMENT_LIST);
+                } else if (state[top] == 3 && nextToken.symbol == Token.elseSymbol) {
+                    acceptTerminal(Token.elseSymbol);
+                    call(4, STATEMENT_LIST);
+                } else {
+                    state[top] = 5;
+                    acceptTerminal(Token.endSymbol);
+                    acceptTerminal(Token.ifSymbol);
+                    myGenerate.finishNonterminal("<if statement>");
+                    depth--;
+                }
+                break;
+
+            case WHILE:
+                // 1 is in the condition, 3 in the statement list
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<while statement>");
+                    acceptTerminal(Token.whileSymbol);
+                    state[top] = 1;
+                    condition();
+                    state[top] = 2;
+                    acceptTerminal(Token.loopSymbol);
+                    call(3, STATEMENT_LIST);
+                } else {
+                    state[top] = 4;
+                    acceptTerminal(Token.endSymbol);
+                    acceptTerminal(Token.loopSymbol);
+                    myGenerate.finishNonterminal("<while statement>");
+                    depth--;
+                }
+                break;
+
+            case UNTIL:
+                // 1 is in the statement list, 3 in the condition
+                if (state[top] == 0) {
+                    myGenerate.commenceNonterminal("<until statement>");
+                    acceptTerminal(Token.doSymbol);
+                    call(1, STATEMENT_LIST);
+                } else {
+                    state[top] = 2;
+                    acceptTerminal(Token.untilSymbol);
+                    state[top] = 3;
+                    condition();
+                    state[top] = 4;
+                    myGenerate.finishNonterminal("<until statement>");
+                    depth--;
+                }
+                break;
+
+            default:
+                throw new IllegalStateException("bad frame " + nonterminal[top]);
+        }
+    }
+
+    private void factorError() throws CompilationException {
+        myGenerate.reportError(currentToken(), "Error on factor, expected IDENTIFIER, NUMBER or (<expression), but found " + Token.getName(nextToken.symbol));
+    }
+
+    /**
+     * Parses a condition, which never nests, without a frame of its own.
+     */
+    private void condition() throws IOException, CompilationException {
+        myGenerate.commenceNonterminal("<condition>");
+        acceptTerminal(Token.identifier);
+
+        myGenerate.commenceNonterminal("<conditional operator>");
+        switch (nextToken.symbol) {
+            case Token.lessThanSymbol:
+            case Token.greaterThanSymbol:
+            case Token.lessEqualSymbol:
+            case Token.greaterEqualSymbol:
+            case Token.equalSymbol:
+            case Token.notEqualSymbol:
+                acceptTerminal(nextToken.symbol);
+                break;
+            default:
+        }
+        myGenerate.finishNonterminal("<conditional operator>");
+
+        switch (nextToken.symbol) {
+            case Token.identifier:
+            case Token.numberConstant:
+            case Token.stringConstant:
+                acceptTerminal(nextToken.symbol);
+                break;
+            default:
+        }
+        myGenerate.finishNonterminal("<condition>");
+    }
+
+    /**
+     * Pops frames until one recovers from an error, wrapping the error on the way as the
+     * catch blocks of SyntaxAnalyser do, or throws it on once the stack is empty.
+     *
+     * @param error The error thrown by the top frame
+     */
+    private void unwind(CompilationException error) throws IOException, CompilationException {
+        while (depth > 0) {
+            int top = depth - 1;
+            int s = state[top];
+            if (nonterminal[top] == STATEMENT_LIST && (s == 1 || s == 4)) {
+                try {
+                    recover(syntaxError("<statement>", error));
+                    state[top] = 2;
+                    return;
+                } catch (CompilationException e) {
+                    error = e;
+                }
+            } else {
+                String expected = expected(nonterminal[top], s);
+                if (expected != null)
+                    error = syntaxError(expected, error);
+            }
+            depth--;
+        }
+        throw error;
+    }
+
+    /**
+     * @return What a nonterminal expected at a point in it, if an error there is wrapped, or null
+     */
+    private static String expected(int n, int s) {
+        switch (n) {
+            case STATEMENT_PART:
+                return (s == 1) ? "<statement list>" : null;
+            case STATEMENT:
+                return (s < 2) ? "<if>, <assignment>, <until>, <while> or <procedure>" : null;
+            case ASSIGNMENT:
+                return (s == 1) ? "<expression>" : null;
+            case PROCEDURE:
+                return (s == 1) ? "<argument list>" : null;
+            case EXPRESSION:
+                return (s < 2) ? "<term>" : null;
+            case TERM:
+                return (s < 2) ? "<factor>" : null;
+            case FACTOR:
+                return (s < 2) ? "<identifier>, <number constant> or <( <expression> )>" : null;
+            case ARGUMENT_LIST:
+                return (s == 1) ? "<argument list>" : null;
+            case IF:
+                return (s == 1) ? "<condition>" : (s == 3 || s == 4) ? "<statement list>" : null;
+            case WHILE:
+                return (s == 1) ? "<condition>" : (s == 3) ? "<statement list>" : null;
+            case UNTIL:
+                return (s == 1) ? "<statement list>" : (s == 3) ? "<condition>" : null;
+            default:
+                return null;
+        }
+    }
+
+}
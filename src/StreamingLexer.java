@@ -0,0 +1,342 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A lexical analyser that is pushed its input in chunks of bytes as they arrive, rather than
+ * pulling characters from a file. Between chunks it remembers where it is in a token as one of
+ * a few states, so a token may be split across any number of chunks.
+ * <p>
+ * The tokens, their text, line numbers and character positions are exactly those
+ * LexicalAnalyser gives for the same bytes, quirks included: line ends are read as readLine()
+ * would, lines inside string constants are not counted, and a NUL character ends the input
+ * unless it is inside a string constant or a comment.
+ * Apart from the text of the token being scanned, the memory it holds does not depend on the
+ * size of the input, unless it is given an IdentifierTable, which keeps every distinct name.
+ */
+public class StreamingLexer {
+
+    private static final int BLOCK_SIZE = 8 * 1024;
+    /**
+     * The character LexicalAnalyser reads at the end of the input.
+     */
+    private static final char EOF = '\000';
+
+    /* What the characters seen since the last token was finished have started */
+    private static final int START = 0;
+    private static final int DASH = 1;
+    private static final int COMMENT = 2;
+    private static final int WORD = 3;
+    private static final int NUMBER = 4;
+    private static final int FRACTION = 5;
+    private static final int STRING = 6;
+    private static final int PAIR = 7;
+    private static final int ENDED = 8;
+
+    private final CharsetDecoder decoder;
+    private final ByteBuffer pending = ByteBuffer.allocate(BLOCK_SIZE);
+    private final CharBuffer decoded = CharBuffer.allocate(BLOCK_SIZE);
+    private boolean afterReturn;
+    private boolean lineOpen;
+
+    private int state = START;
+    /* The first character of a two character symbol such as ":=" */
+    private char pairCharacter;
+    private final StringBuffer currentText = new StringBuffer();
+    private int currentLineNumber;
+    private int currentPosition;
+    private int tokenStart;
+
+    /* The table identifiers are interned in, if any, and the characters of the name being interned */
+    private IdentifierTable identifiers;
+    private char[] word = new char[64];
+
+    /**
+     * Reads the input in the platform's default charset, as LexicalAnalyser does.
+     */
+    public StreamingLexer() {
+        this(Charset.defaultCharset());
+    }
+
+    /**
+     * @param charset The charset the input is encoded in
+     */
+    public StreamingLexer(Charset charset) {
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Sets the table identifiers are interned in, so that the ids of names are the same across
+     * every lexer sharing it. Must be called before the first chunk is fed. Until a table is set
+     * identifiers are not interned, and are given the id 0.
+     *
+     * @param identifiers The table to intern identifiers in
+     */
+    public void setIdentifierTable(IdentifierTable identifiers) {
+        this.identifiers = identifiers;
+    }
+
+    /**
+     * Scans a chunk of input, adding every token it completes to a stream. Bytes at the end of
+     * the chunk that only start a character, and characters that only start a token, are kept
+     * until the next chunk.
+     *
+     * @param input  The bytes to scan; all of them are consumed
+     * @param tokens The stream to add tokens to
+     */
+    public void feed(ByteBuffer input, TokenStream tokens) {
+        while (input.hasRemaining()) {
+            int n = Math.min(input.remaining(), pending.remaining());
+            ByteBuffer slice = input.slice();
+            slice.limit(n);
+            pending.put(slice);
+            input.position(input.position() + n);
+            decode(false, tokens);
+        }
+    }
+
+    /**
+     * Scans whatever input is left once the last chunk has been fed, and adds the EOF token.
+     *
+     * @param tokens The stream to add tokens to
+     */
+    public void finish(TokenStream tokens) {
+        decode(true, tokens);
+        decoder.flush(decoded);
+        scanDecoded(tokens);
+        if (lineOpen)
+            scan('\n', tokens);
+        // A string constant is only closed by the end of the input, not by a NUL in it
+        if (state == STRING) {
+            addAfter(Token.stringConstant, tokens);
+            currentPosition++;
+        }
+        // LexicalAnalyser goes on reading EOF, so any other token left open is ended by it
+        while (state != ENDED)
+            scan(EOF, tokens);
+    }
+
+    private void decode(boolean endOfInput, TokenStream tokens) {
+        pending.flip();
+        CoderResult result;
+        do {
+            result = decoder.decode(pending, decoded, endOfInput);
+            scanDecoded(tokens);
+        } while (result.isOverflow());
+        pending.compact();
+    }
+
+    /**
+     * Scans the decoded characters, turning line ends into '\n' as readLine() does.
+     */
+    private void scanDecoded(TokenStream tokens) {
+        decoded.flip();
+        while (decoded.hasRemaining()) {
+            char c = decoded.get();
+            if (c == '\n' && afterReturn) {
+                afterReturn = false;
+                continue;
+            }
+            afterReturn = (c == '\r');
+            if (c == '\r' || c == '\n') {
+                lineOpen = false;
+                scan('\n', tokens);
+            } else {
+                lineOpen = true;
+                scan(c, tokens);
+            }
+        }
+        decoded.clear();
+    }
+
+    /**
+     * Moves the state machine on by one character.
+     */
+    private void scan(char c, TokenStream tokens) {
+        // A character that ends a token without being part of it is scanned again from START
+        while (!step(c, tokens)) {
+        }
+        currentPosition++;
+    }
+
+    /**
+     * @return false if the character ended a token and must be scanned again
+     */
+    private boolean step(char c, TokenStream tokens) {
+        switch (state) {
+            case START:
+                return start(c, tokens);
+            case DASH:
+                if (c == '-') {
+                    state = COMMENT;
+                    return true;
+                }
+                add(Token.minusSymbol, tokens);
+                return false;
+            case COMMENT:
+                if (c == '\n') {
+                    currentLineNumber++;
+                    state = START;
+                }
+                return true;
+            case WORD:
+                if (Character.isLetter(c) || Character.isDigit(c)) {
+                    currentText.append(c);
+                    return true;
+                }
+                add(LexicalAnalyser.reservedWordSymbol(currentText), tokens);
+                return false;
+            case NUMBER:
+                if (c == '.') {
+                    currentText.append(c);
+                    state = FRACTION;
+                    return true;
+                }
+                return digit(c, tokens);
+            case FRACTION:
+                return digit(c, tokens);
+            case STRING:
+                if (c == '"')
+                    addAfter(Token.stringConstant, tokens);
+                else
+                    currentText.append(c);
+                return true;
+            case PAIR:
+                if (c == '=') {
+                    addAfter(pairSymbol(true), tokens);
+                    return true;
+                }
+                add(pairSymbol(false), tokens);
+                return false;
+            default:
+                // Nothing after a NUL is read
+                return true;
+        }
+    }
+
+    /**
+     * Adds a digit to the number being scanned, or ends the number at any other character.
+     *
+     * @return false if the character ended the number and must be scanned again
+     */
+    private boolean digit(char c, TokenStream tokens) {
+        if (Character.isDigit(c)) {
+            currentText.append(c);
+            return true;
+        }
+        add(Token.numberConstant, tokens);
+        return false;
+    }
+
+    private boolean start(char c, TokenStream tokens) {
+        tokenStart = currentPosition;
+        switch (c) {
+            case ' ':
+            case '\t':
+                return true;
+            case '\n':
+                currentLineNumber++;
+                return true;
+            case '-':
+                state = DASH;
+                return true;
+            case '"':
+                currentText.setLength(0);
+                state = STRING;
+                return true;
+            case ':':
+            case '>':
+            case '<':
+            case '/':
+                pairCharacter = c;
+                state = PAIR;
+                return true;
+            case '=':
+                addAfter(Token.equalSymbol, tokens);
+                return true;
+            case ',':
+                addAfter(Token.commaSymbol, tokens);
+                return true;
+            case ';':
+                addAfter(Token.semicolonSymbol, tokens);
+                return true;
+            case '+':
+                addAfter(Token.plusSymbol, tokens);
+                return true;
+            case '*':
+                addAfter(Token.timesSymbol, tokens);
+                return true;
+            case '(':
+                addAfter(Token.leftParenthesis, tokens);
+                return true;
+            case ')':
+                addAfter(Token.rightParenthesis, tokens);
+                return true;
+            case EOF:
+                tokens.add(Token.eofSymbol, null, currentLineNumber, currentPosition, currentPosition);
+                state = ENDED;
+                return true;
+            default:
+                break;
+        }
+
+        if (Character.isLetter(c)) {
+            currentText.setLength(0);
+            currentText.append(c);
+            state = WORD;
+        } else if (Character.isDigit(c)) {
+            currentText.setLength(0);
+            currentText.append(c);
+            state = NUMBER;
+        } else {
+            currentText.setLength(0);
+            addAfter(Token.errorSymbol, tokens);
+        }
+        return true;
+    }
+
+    private int pairSymbol(boolean equals) {
+        switch (pairCharacter) {
+            case ':':
+                return equals ? Token.becomesSymbol : Token.colonSymbol;
+            case '>':
+                return equals ? Token.greaterEqualSymbol : Token.greaterThanSymbol;
+            case '<':
+                return equals ? Token.lessEqualSymbol : Token.lessThanSymbol;
+            default:
+                return equals ? Token.notEqualSymbol : Token.divideSymbol;
+        }
+    }
+
+    /**
+     * Adds a token that ends before the current character.
+     */
+    private void add(int symbol, TokenStream tokens) {
+        int id = 0;
+        if ((symbol == Token.identifier) && (identifiers != null)) {
+            int n = currentText.length();
+            if (n > word.length)
+                word = new char[Math.max(n, word.length * 2)];
+            currentText.getChars(0, n, word, 0);
+            id = identifiers.intern(word, 0, n);
+        }
+        // A word keeps its text even when it is reserved, as it may be spelt in any case
+        tokens.add(symbol, (Token.hasText(symbol) || (state == WORD)) ? currentText : null, currentLineNumber, tokenStart,
+                currentPosition, id);
+        state = START;
+    }
+
+    /**
+     * Adds a token that ends with the current character.
+     */
+    private void addAfter(int symbol, TokenStream tokens) {
+        tokens.add(symbol, Token.hasText(symbol) ? currentText : null, currentLineNumber, tokenStart, currentPosition + 1);
+        state = START;
+    }
+
+}
@@ -0,0 +1,307 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Parses a program pushed to it in chunks of bytes as they arrive, from a pipe, a socket or
+ * standard input, without the whole program ever being held in memory.
+ * <p>
+ * Each chunk is scanned by a StreamingLexer on the calling thread, and the tokens are handed in
+ * small batches to a SyntaxAnalyser running on a parser thread, which writes the trace as it goes.
+ * A fixed number of batches circulate between the two, so a producer that gets ahead of the
+ * parser waits for it and memory stays bounded however long the input is. The trace and error
+ * report are the same as parsing the bytes from a file.
+ */
+public class StreamingParser {
+
+    /**
+     * The most bytes scanned before the tokens so far are offered to the parser.
+     */
+    private static final int CHUNK_SIZE = 4 * 1024;
+    /**
+     * The number of tokens in a batch before it is handed to the parser.
+     */
+    private static final int BATCH_SIZE = 1024;
+    /**
+     * The number of batches circulating between the lexer and the parser.
+     */
+    private static final int BATCHES = 4;
+
+    /**
+     * A batch handed to the parser to mark the end of the input.
+     */
+    private static final TokenStream END = new TokenStream(0);
+
+    private final StreamingLexer lexer = new StreamingLexer();
+    private TokenStream batch = new TokenStream(BATCH_SIZE);
+    private final BlockingQueue<TokenStream> free = new ArrayBlockingQueue<>(BATCHES);
+    private final BlockingQueue<TokenStream> full = new ArrayBlockingQueue<>(BATCHES + 1);
+
+    private final Thread parser;
+    private final SuccessSink trace;
+    /* Set once the parser needs no more input, so that chunks can be skipped */
+    private volatile boolean parsed;
+    private volatile Throwable failure;
+
+    /**
+     * @param fileName The name of the program, for error messages
+     * @param ps       The stream to report compilation errors to
+     * @param trace    The sink the trace is written to
+     */
+    public StreamingParser(String fileName, PrintStream ps, TraceSink trace) {
+        this(fileName, ps, trace, 0);
+    }
+
+    /**
+     * @param fileName  The name of the program, for error messages
+     * @param ps        The stream to report compilation errors to
+     * @param trace     The sink the trace is written to
+     * @param maxErrors The most syntax errors to report, or 0 to stop at the first
+     */
+    public StreamingParser(String fileName, PrintStream ps, TraceSink trace, int maxErrors) {
+        for (int i = 1; i < BATCHES; i++)
+            free.add(new TokenStream(BATCH_SIZE));
+        this.trace = new SuccessSink(trace);
+
+        SyntaxAnalyser syn = new SyntaxAnalyser(new QueuedTokens(), fileName);
+        syn.setRecovery(maxErrors);
+        parser = new Thread(() -> run(syn, ps), "streaming-parser");
+        parser.setDaemon(true);
+        parser.start();
+    }
+
+    /**
+     * The body of the parser thread.
+     */
+    private void run(SyntaxAnalyser syn, PrintStream ps) {
+        try {
+            syn.parse(ps, trace);
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            parsed = true;
+            // Keep taking batches until the end, so the lexer is never left waiting
+            try {
+                TokenStream b;
+                while ((b = full.take()) != END)
+                    free.put(b);
+            } catch (InterruptedException e) {
+                // Closing down
+            }
+        }
+    }
+
+    /**
+     * Scans a chunk of input and hands the tokens it completes to the parser, waiting if the
+     * parser has fallen behind.
+     *
+     * @param input The bytes to scan; all of them are consumed
+     * @throws IOException if interrupted while waiting for the parser
+     */
+    public void feed(ByteBuffer input) throws IOException {
+        while (input.hasRemaining() && !parsed) {
+            ByteBuffer chunk = input.slice();
+            chunk.limit(Math.min(chunk.remaining(), CHUNK_SIZE));
+            lexer.feed(chunk, batch);
+            input.position(input.position() + chunk.position());
+            if (batch.size() >= BATCH_SIZE)
+                handOff();
+        }
+        input.position(input.limit());
+        // Let the parser have every token of the chunk now rather than when the batch fills
+        if (batch.size() > 0 && !parsed)
+            handOff();
+    }
+
+    /**
+     * Marks the end of the input and waits for the parse to finish.
+     *
+     * @return true if the program parsed successfully
+     * @throws IOException if the parser failed or was interrupted
+     */
+    public boolean finish() throws IOException {
+        lexer.finish(batch);
+        try {
+            full.put(batch);
+            full.put(END);
+            parser.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the parser");
+        }
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure != null)
+            throw new IOException("streaming parse failed", failure);
+        return trace.succeeded;
+    }
+
+    private void handOff() throws IOException {
+        try {
+            full.put(batch);
+            batch = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the parser");
+        }
+        batch.clear();
+    }
+
+    /**
+     * Parses everything that can be read from a channel, a block at a time.
+     *
+     * @param channel   The channel to read the program from
+     * @param fileName  The name of the program, for error messages
+     * @param ps        The stream to report compilation errors to
+     * @param trace     The sink the trace is written to
+     * @param maxErrors The most syntax errors to report, or 0 to stop at the first
+     * @return true if the program parsed successfully
+     * @throws IOException if the channel cannot be read or the parser failed
+     */
+    public static boolean parse(ReadableByteChannel channel, String fileName, PrintStream ps, TraceSink trace,
+                                int maxErrors) throws IOException {
+        StreamingParser parser = new StreamingParser(fileName, ps, trace, maxErrors);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            parser.feed(buffer);
+            buffer.clear();
+        }
+        return parser.finish();
+    }
+
+    /**
+     * Supplies the parser thread with tokens from the batches handed to it.
+     */
+    private class QueuedTokens implements TokenSource {
+
+        private TokenStream current;
+        private int next;
+        private boolean ended;
+        private int lastLine;
+        private int lastOffset;
+
+        /**
+         * Waits for a batch with a token left in it, handing back those that have been read.
+         *
+         * @return false once the end of the input has been reached
+         */
+        private boolean fill() throws IOException {
+            try {
+                while (current == null || next == current.size()) {
+                    if (ended)
+                        return false;
+                    if (current != null)
+                        free.put(current);
+                    current = full.take();
+                    next = 0;
+                    if (current == END) {
+                        // Put the marker back for the thread body to find
+                        full.put(END);
+                        current = null;
+                        ended = true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted waiting for input");
+            }
+            lastLine = current.line(next);
+            lastOffset = current.offset(next);
+            return true;
+        }
+
+        @Override
+        public Token getNextToken() throws IOException {
+            if (!fill())
+                // Past the end LexicalAnalyser gives EOF again and again
+                return new Token(Token.eofSymbol, Token.getText(Token.eofSymbol), lastLine);
+            return current.getToken(next++);
+        }
+
+        @Override
+        public void getNextToken(TokenStream tokens) throws IOException {
+            if (!fill()) {
+                tokens.add(Token.eofSymbol, null, lastLine, lastOffset, lastOffset);
+                return;
+            }
+            tokens.add(current, next++);
+        }
+    }
+
+    /**
+     * Passes every event on to another sink, noting whether the parse succeeded.
+     */
+    private static class SuccessSink extends TraceSink {
+
+        private final TraceSink sink;
+        private boolean succeeded;
+
+        SuccessSink(TraceSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void terminal(int symbol, String text, int line) {
+            sink.terminal(symbol, text, line);
+        }
+
+        @Override
+        public void terminal(int symbol, char[] text, int start, int length, int line) {
+            sink.terminal(symbol, text, start, length, line);
+        }
+
+        @Override
+        public void commenceNonterminal(String name) {
+            sink.commenceNonterminal(name);
+        }
+
+        @Override
+        public void finishNonterminal(String name) {
+            sink.finishNonterminal(name);
+        }
+
+        @Override
+        public void success() {
+            succeeded = true;
+            sink.success();
+        }
+
+        @Override
+        public void message(String text) {
+            sink.message(text);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            sink.flush();
+        }
+    }
+
+    /**
+     * Usage: StreamingParser [file]
+     * <p>
+     * Parses a file, or standard input when no file is given, writing the trace to standard
+     * output and any errors to standard error. Exits with status 1 if the program does not parse.
+     */
+    public static void main(String[] args) throws IOException {
+        ReadableByteChannel in = (args.length > 0)
+                ? FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ)
+                : Channels.newChannel(System.in);
+        ChannelSink out = new ChannelSink(new FileOutputStream(FileDescriptor.out).getChannel());
+        boolean ok = parse(in, (args.length > 0) ? args[0] : "<stdin>", System.err, out, 0);
+        out.close();
+        in.close();
+        System.exit(ok ? 0 : 1);
+    }
+
+}
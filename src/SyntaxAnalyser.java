@@ -1,6 +1,7 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.function.IntPredicate;
 
 /**
  * @author JamesDavies
@@ -9,21 +10,119 @@ import java.io.PrintStream;
  */
 public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
 
-    private String filename;
+    String filename;
 
     public SyntaxAnalyser(String filename) {
+        this(filename, false);
+    }
+
+    /**
+     * @param filename The file to parse
+     * @param mapped   True to read the file through the memory-mapped lexer backend
+     */
+    public SyntaxAnalyser(String filename, boolean mapped) {
 
         this.filename = filename;
 
         // Initalise the lexical analyser
         try {
-            lex = new LexicalAnalyser(filename);
+            lex = new LexicalAnalyser(filename, mapped);
 
         } catch (Exception e) {
             System.err.println("Failed to load lexical analyser.");
         }
     }
 
+    /**
+     * @param lex      The lexical analyser, or other source of tokens, to read tokens from
+     * @param filename The name of the file being parsed, for error messages
+     */
+    public SyntaxAnalyser(TokenSource lex, String filename) {
+        this.filename = filename;
+        this.lex = lex;
+    }
+
+    /**
+     * Makes this analyser ready to parse another file, reading it with its own lexical analyser
+     * reset to read the file, or with a new one if it was reading from some other source.
+     *
+     * @param filename The file to parse
+     * @param mapped   True to read the file through the memory-mapped lexer backend
+     * @throws IOException if the file cannot be read
+     */
+    public void reset(String filename, boolean mapped) throws IOException {
+        LexicalAnalyser reader = (lex instanceof LexicalAnalyser) ? (LexicalAnalyser) lex : new LexicalAnalyser();
+        reader.reset(filename, mapped);
+        reset(reader, filename);
+    }
+
+    /**
+     * Makes this analyser ready to parse another file.
+     *
+     * @param lex      The lexical analyser, or other source of tokens, to read tokens from
+     * @param filename The name of the file being parsed, for error messages
+     */
+    public void reset(TokenSource lex, String filename) {
+        reset(lex);
+        this.filename = filename;
+    }
+
+    /**
+     * Parses a single statement or statement list on its own, starting part way through a
+     * complete token stream, for incremental reparsing.
+     *
+     * @param nonterminal Either "<statement>" or "<statement list>"
+     * @param tokens      The tokens of the whole program, up to and including EOF
+     * @param start       The index of the first token of the nonterminal
+     * @param sink        The sink to write the events of the nonterminal to
+     * @return The index of the token after the nonterminal
+     * @throws IOException
+     * @throws CompilationException
+     */
+    int reparse(String nonterminal, TokenStream tokens, int start, TraceSink sink) throws IOException, CompilationException {
+        startAt(tokens, start, sink);
+
+        if (nonterminal.equals("<statement>"))
+            handleStatement();
+        else
+            handleStatementList();
+        return tokenIndex;
+    }
+
+    /**
+     * Parses a run of the statements of a statement list, without the events of the list itself,
+     * for incremental reparsing. The run ends with the list, or just after a semicolon when the
+     * next statement starts at a token the caller already has a parse for.
+     *
+     * @param tokens The tokens of the whole program, up to and including EOF
+     * @param start  The index of the first token of the first statement
+     * @param resync Tells whether to stop before the statement starting at a token index
+     * @param sink   The sink to write the events of the statements to
+     * @return The index of the token after the run
+     * @throws IOException
+     * @throws CompilationException
+     */
+    int reparseStatements(TokenStream tokens, int start, IntPredicate resync, TraceSink sink) throws IOException, CompilationException {
+        startAt(tokens, start, sink);
+
+        handleStatement();
+        while (nextToken.symbol == Token.semicolonSymbol) {
+            acceptTerminal(Token.semicolonSymbol);
+            if (resync.test(tokenIndex))
+                break;
+            handleStatement();
+        }
+        return tokenIndex;
+    }
+
+    private void startAt(TokenStream tokens, int start, TraceSink sink) {
+        myGenerate = new Generate();
+        myGenerate.sink = sink;
+        this.tokens = tokens;
+        tokenIndex = start;
+        nextToken = tokens.getToken(start);
+    }
+
     /**
      * @throws IOException
      * @throws CompilationException
@@ -41,7 +140,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             // Enter into the statement list
             handleStatementList();
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<statement list>", nextToken), e);
+            throw syntaxError("<statement list>", e);
         }
 
         // Ending of the parsing
@@ -60,7 +159,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
         try {
             handleStatement();
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<statement>", nextToken), e);
+            recover(syntaxError("<statement>", e));
         }
 
         // If you've reached a semicolon, then you've finished the statement
@@ -71,13 +170,50 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
                 // Handle the next statement again
                 handleStatement();
             } catch (CompilationException e) {
-                throw new CompilationException(generateErrorString("<statement>", nextToken), e);
+                recover(syntaxError("<statement>", e));
             }
         }
 
         myGenerate.finishNonterminal("<statement list>");
     }
 
+    /**
+     * Records a failed statement and skips to the next token a statement list can carry on
+     * from, or throws the error on when recovery is off or the error limit has been reached.
+     * At least one token is skipped if nothing has been read since the last recovery, so that
+     * parsing can never stick on one token.
+     *
+     * @param error The error in the statement
+     */
+    void recover(CompilationException error) throws IOException, CompilationException {
+        if (diagnostics == null || diagnostics.size() + 1 >= maxErrors)
+            throw error;
+
+        if (tokensRead == lastRecovery) {
+            if (nextToken.symbol == Token.eofSymbol)
+                throw error;
+            advance();
+        }
+        diagnostics.add(error);
+
+        while (!isFollower(nextToken.symbol))
+            advance();
+        lastRecovery = tokensRead;
+    }
+
+    /**
+     * Return boolean based on whether a symbol can follow a statement
+     *
+     * @return boolean
+     */
+    private boolean isFollower(int symbol) {
+        return symbol == Token.semicolonSymbol
+                || symbol == Token.endSymbol
+                || symbol == Token.elseSymbol
+                || symbol == Token.untilSymbol
+                || symbol == Token.eofSymbol;
+    }
+
     /**
      * Checks the first Set for any of the first non-terminals
      */
@@ -102,12 +238,12 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
                     handleUntil();
                     break;
                 default:
-                    myGenerate.reportError(nextToken, "Expected <if>, <assignment>, <until>, <while> or <procedure>");
+                    myGenerate.reportError(currentToken(), "Expected <if>, <assignment>, <until>, <while> or <procedure>");
                     break;
                     // Handle error
             }
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<if>, <assignment>, <until>, <while> or <procedure>", nextToken), e);
+            throw syntaxError("<if>, <assignment>, <until>, <while> or <procedure>", e);
         }
 
         myGenerate.finishNonterminal("<statement>");
@@ -134,7 +270,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
         try {
             handleExpression();
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<expression>", nextToken), e);
+            throw syntaxError("<expression>", e);
         }
         myGenerate.finishNonterminal("<assignment statement>");
     }
@@ -156,7 +292,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             // Arguments inside the 'get'
             handleArgumentList();
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<argument list>", nextToken), e);
+            throw syntaxError("<argument list>", e);
         }
 
         // )
@@ -203,7 +339,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             }
 
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<term>", nextToken), e);
+            throw syntaxError("<term>", e);
         }
 
         myGenerate.finishNonterminal("<expression>");
@@ -224,7 +360,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             }
 
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<factor>", nextToken), e);
+            throw syntaxError("<factor>", e);
         }
 
         myGenerate.finishNonterminal("<term>");
@@ -247,12 +383,12 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
                     handleExpression();
                     acceptTerminal(Token.rightParenthesis);
                 default:
-                    myGenerate.reportError(nextToken, "Error on factor, expected IDENTIFIER, NUMBER or (<expression), but found " + Token.getName(nextToken.symbol));
+                    myGenerate.reportError(currentToken(), "Error on factor, expected IDENTIFIER, NUMBER or (<expression), but found " + Token.getName(nextToken.symbol));
                     break;
             }
 
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<identifier>, <number constant> or <( <expression> )>", nextToken), e);
+            throw syntaxError("<identifier>, <number constant> or <( <expression> )>", e);
         }
 
         myGenerate.finishNonterminal("<factor>");
@@ -277,7 +413,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             }
 
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<argument list>", nextToken), e);
+            throw syntaxError("<argument list>", e);
         }
 
         myGenerate.finishNonterminal("<argument list>");
@@ -308,7 +444,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             }
 
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<condition operator>", nextToken), e);
+            throw syntaxError("<condition operator>", e);
         }
 
         myGenerate.finishNonterminal("<condition>");
@@ -359,7 +495,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             // If condition
             handleCondition();
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<condition>", nextToken), e);
+            throw syntaxError("<condition>", e);
         }
         // then
         acceptTerminal(Token.thenSymbol);
@@ -377,7 +513,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             }
 
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<statement list>", nextToken), e);
+            throw syntaxError("<statement list>", e);
         }
 
         acceptTerminal(Token.endSymbol);
@@ -399,7 +535,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             // condition for the loop
             handleCondition();
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<condition>", nextToken), e);
+            throw syntaxError("<condition>", e);
         }
         // loop
         acceptTerminal(Token.loopSymbol);
@@ -408,7 +544,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             // The body of the loop
             handleStatementList();
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<statement list>", nextToken), e);
+            throw syntaxError("<statement list>", e);
         }
         // end loop
         acceptTerminal(Token.endSymbol);
@@ -432,7 +568,7 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             // Handle FIRST() set
             handleStatementList();
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<statement list>", nextToken), e);
+            throw syntaxError("<statement list>", e);
         }
 
         // until
@@ -442,19 +578,21 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
             // Handle the condition
             handleCondition();
         } catch (CompilationException e) {
-            throw new CompilationException(generateErrorString("<condition>", nextToken), e);
+            throw syntaxError("<condition>", e);
         }
 
         myGenerate.finishNonterminal("<until statement>");
     }
 
     /**
+     * Wraps an error in a syntax error for the next token, formatted only if it is reported.
+     *
      * @param expected The list of expected terminals.
-     * @param next     The next token
-     * @return String
+     * @param cause    The error being wrapped
+     * @return CompilationException
      */
-    private String generateErrorString(String expected, Token next) {
-        return "line " + next.lineNumber + " in " + this.filename + ":\n\t\t\t- Expected token(s) " + expected + " but found (" + Token.getName(next.symbol) + ").\n";
+    CompilationException syntaxError(String expected, CompilationException cause) {
+        return new CompilationException(expected, nextToken.symbol, nextToken.lineNumber, this.filename, cause);
     }
 
     /**
@@ -468,13 +606,19 @@ public class SyntaxAnalyser extends AbstractSyntaxAnalyser {
         Token actual = nextToken;
         // Check if the symbol was expected
         if (symbol == actual.symbol) {
-            myGenerate.insertTerminal(nextToken);
+            long start = (profiler == null) ? 0 : System.nanoTime();
+            if (tokens == null)
+                myGenerate.insertTerminal(nextToken);
+            else
+                myGenerate.insertTerminal(tokens, tokenIndex);
             // Move the token to the next one
-            nextToken = lex.getNextToken();
+            advance();
+            if (profiler != null)
+                profiler.terminal(symbol, System.nanoTime() - start);
             return;
         }
 
-        myGenerate.reportError(nextToken, generateErrorString("<" + Token.getName(symbol) + ">", nextToken));
+        myGenerate.reportError(currentToken(), new CompilationException(symbol, nextToken.symbol, nextToken.lineNumber, this.filename));
     }
 
 }
@@ -0,0 +1,154 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the table-driven TableSyntaxAnalyser against the recursive descent SyntaxAnalyser on
+ * the same corpus.
+ * <p>
+ * Every file is lexed once up front, and each parse replays its tokens, so the timings are of
+ * the parsers alone. The two are timed in turn, after a warm up, and must give the same number of
+ * events for every file.
+ * <p>
+ * Usage: TableParserBenchmark [iterations [file...]]
+ */
+public class TableParserBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        List<String> names = new ArrayList<>();
+        for (int i = 1; i < args.length; i++)
+            names.add(args[i]);
+        if (names.isEmpty())
+            for (int i = 0; new File("Programs Folder/program" + i).exists(); i++)
+                names.add("Programs Folder/program" + i);
+
+        List<Token[]> corpus = new ArrayList<>();
+        long tokens = 0;
+        for (String name : names) {
+            Token[] lexed = lex(name);
+            corpus.add(lexed);
+            tokens += lexed.length;
+        }
+
+        CountingSink sink = new CountingSink();
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        for (int f = 0; f < corpus.size(); f++) {
+            long recursive = parse(false, corpus.get(f), discard, sink);
+            long table = parse(true, corpus.get(f), discard, sink);
+            if (recursive != table)
+                throw new IllegalStateException(names.get(f) + ": " + recursive + " events from SyntaxAnalyser, "
+                        + table + " from TableSyntaxAnalyser");
+        }
+
+        time(false, corpus, iterations / 10, discard, sink);
+        time(true, corpus, iterations / 10, discard, sink);
+        double recursive = time(false, corpus, iterations, discard, sink);
+        double table = time(true, corpus, iterations, discard, sink);
+        System.out.printf("%d files, %d tokens%n", corpus.size(), tokens);
+        System.out.printf("recursive descent: %.1f us per pass (%.1f M tokens/s)%n", recursive / 1000, tokens * 1000 / recursive);
+        System.out.printf("table driven:      %.1f us per pass (%.1f M tokens/s)%n", table / 1000, tokens * 1000 / table);
+    }
+
+    private static Token[] lex(String name) throws IOException {
+        LexicalAnalyser lex = new LexicalAnalyser(name);
+        List<Token> tokens = new ArrayList<>();
+        Token t;
+        do {
+            t = lex.getNextToken();
+            tokens.add(t);
+        } while (t.symbol != Token.eofSymbol);
+        return tokens.toArray(new Token[0]);
+    }
+
+    /**
+     * @return The number of events the parse gave
+     */
+    private static long parse(boolean table, Token[] tokens, PrintStream discard, CountingSink sink) throws IOException {
+        TokenSource lex = new Replay(tokens);
+        AbstractSyntaxAnalyser syn = table ? new TableSyntaxAnalyser(lex, "replay") : new SyntaxAnalyser(lex, "replay");
+        long before = sink.events;
+        syn.parse(discard, sink);
+        return sink.events - before;
+    }
+
+    /**
+     * @return the mean nanoseconds to parse the whole corpus once
+     */
+    private static double time(boolean table, List<Token[]> corpus, int iterations, PrintStream discard,
+                               CountingSink sink) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            for (Token[] tokens : corpus)
+                parse(table, tokens, discard, sink);
+        return (double) (System.nanoTime() - start) / Math.max(iterations, 1);
+    }
+
+    /**
+     * Gives the tokens of a file that has already been lexed, then EOF again and again.
+     */
+    private static class Replay implements TokenSource {
+
+        private final Token[] tokens;
+        private int next;
+
+        Replay(Token[] tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public Token getNextToken() {
+            return tokens[Math.min(next++, tokens.length - 1)];
+        }
+
+        @Override
+        public void getNextToken(TokenStream stream) {
+            stream.add(getNextToken());
+        }
+    }
+
+    /**
+     * Counts events, so that the work of a parse cannot be optimised away.
+     */
+    private static class CountingSink extends TraceSink {
+
+        private long events;
+
+        @Override
+        public void terminal(int symbol, String text, int line) {
+            events++;
+        }
+
+        @Override
+        public void terminal(int symbol, char[] text, int start, int length, int line) {
+            events++;
+        }
+
+        @Override
+        public void commenceNonterminal(String name) {
+            events++;
+        }
+
+        @Override
+        public void finishNonterminal(String name) {
+            events++;
+        }
+
+        @Override
+        public void success() {
+        }
+
+        @Override
+        public void message(String text) {
+            events++;
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+}
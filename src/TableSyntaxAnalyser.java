@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A parser for the grammar SyntaxAnalyser recognises, driven by an LL(1) table generated from a
+ * description of the grammar instead of a method per nonterminal.
+ * <p>
+ * The parse is a single loop over an int stack of symbols. A terminal on top of the stack is
+ * matched against the next token. A nonterminal is replaced by the production the table gives
+ * for the next token, with a marker under it to finish the nonterminal in the trace. No objects
+ * are made while parsing, other than by the lexer.
+ * <p>
+ * The description below is the language SyntaxAnalyser accepts, so both parse the same programs
+ * and give the same trace for them. That means leaving out the two constructs it can never get
+ * through: a parenthesised factor, which it reports as an error even after reading the
+ * expression, and the until statement, which it expects to start with 'do' after it has already
+ * seen 'until'. A syntax error is reported at the token where the table has no entry, on its
+ * own rather than as a chain, and stops the parse; there is no error recovery.
+ */
+public class TableSyntaxAnalyser extends AbstractSyntaxAnalyser {
+
+    /**
+     * The grammar of the language, as a Grammar description.
+     */
+    static final String LANGUAGE = String.join("\n",
+            "<statement part>       ::= 'begin' <statement list> 'end'",
+            "<statement list>       ::= <statement> more-statements",
+            "more-statements        ::= ';' <statement> more-statements |",
+            "<statement>            ::= <assignment statement> | <procedure statement> | <if statement> | <while statement>",
+            "<assignment statement> ::= 'IDENTIFIER' ':=' assigned-value",
+            "assigned-value         ::= 'STRING' | <expression>",
+            "<procedure statement>  ::= 'call' 'IDENTIFIER' '(' <argument list> ')'",
+            "# Each argument after a comma is followed by a list of its own, so 'a, b' needs another",
+            "<argument list>        ::= 'IDENTIFIER' more-arguments",
+            "more-arguments         ::= ',' 'IDENTIFIER' <argument list> more-arguments |",
+            "<if statement>         ::= 'if' <condition> 'then' <statement list> else-part 'end' 'if'",
+            "else-part              ::= 'else' <statement list> |",
+            "<while statement>      ::= 'while' <condition> 'loop' <statement list> 'end' 'loop'",
+            "<condition>            ::= 'IDENTIFIER' <conditional operator> operand",
+            "<conditional operator> ::= '<' | '>' | '<=' | '>=' | '=' | '/=' |",
+            "operand                ::= 'IDENTIFIER' | 'NUMBER' | 'STRING' |",
+            "<expression>           ::= <term> more-terms",
+            "more-terms             ::= '+' <term> more-terms | '-' <term> more-terms |",
+            "<term>                 ::= <factor> more-factors",
+            "more-factors           ::= '*' <factor> more-factors | '/' <factor> more-factors |",
+            "<factor>               ::= 'IDENTIFIER' | 'NUMBER'");
+
+    static final Grammar GRAMMAR = new Grammar(LANGUAGE);
+
+    /* Symbols on the stack: terminals, then nonterminals, then the markers that finish them */
+    private static final int TERMINALS = Grammar.terminalCount();
+    private static final int FINISH = TERMINALS + GRAMMAR.nonterminalCount();
+
+    /* The parse table, flattened to one row of TERMINALS entries after another */
+    private static final int[] TABLE = new int[GRAMMAR.nonterminalCount() * TERMINALS];
+    /* The right hand side of each production, last symbol first and under it the marker to
+       finish a traced nonterminal, ready to push */
+    private static final int[][] PUSH = new int[GRAMMAR.productionCount()][];
+    private static final String[] NAMES = new String[GRAMMAR.nonterminalCount()];
+    private static final boolean[] TRACED = new boolean[GRAMMAR.nonterminalCount()];
+    /* The tokens each nonterminal can start with, for error messages */
+    private static final String[] EXPECTED = new String[GRAMMAR.nonterminalCount()];
+
+    static {
+        int[][] table = GRAMMAR.table();
+        for (int n = 0; n < NAMES.length; n++) {
+            NAMES[n] = GRAMMAR.name(n);
+            TRACED[n] = GRAMMAR.traced(n);
+            System.arraycopy(table[n], 0, TABLE, n * TERMINALS, TERMINALS);
+        }
+        for (int p = 0; p < PUSH.length; p++) {
+            int[] rhs = GRAMMAR.rhs(p);
+            int n = GRAMMAR.lhs(p);
+            int marker = TRACED[n] ? 1 : 0;
+            PUSH[p] = new int[rhs.length + marker];
+            if (TRACED[n])
+                PUSH[p][0] = FINISH + n;
+            for (int i = 0; i < rhs.length; i++)
+                PUSH[p][marker + i] = rhs[rhs.length - 1 - i];
+        }
+        for (int n = 0; n < NAMES.length; n++) {
+            StringBuilder expected = new StringBuilder();
+            int[] row = table[n];
+            for (int t = 0; t < TERMINALS; t++) {
+                if (row[t] < 0)
+                    continue;
+                if (expected.length() > 0)
+                    expected.append(", ");
+                expected.append('<').append(Token.getName(t)).append('>');
+            }
+            EXPECTED[n] = expected.toString();
+        }
+    }
+
+    private String filename;
+    private int[] stack = new int[256];
+
+    public TableSyntaxAnalyser(String filename) {
+        this(filename, false);
+    }
+
+    /**
+     * @param filename The file to parse
+     * @param mapped   True to read the file through the memory-mapped lexer backend
+     */
+    public TableSyntaxAnalyser(String filename, boolean mapped) {
+        this.filename = filename;
+        try {
+            lex = new LexicalAnalyser(filename, mapped);
+        } catch (Exception e) {
+            System.err.println("Failed to load lexical analyser.");
+        }
+    }
+
+    /**
+     * @param lex      The lexical analyser, or other source of tokens, to read tokens from
+     * @param filename The name of the file being parsed, for error messages
+     */
+    public TableSyntaxAnalyser(TokenSource lex, String filename) {
+        this.filename = filename;
+        this.lex = lex;
+    }
+
+    /**
+     * Makes this analyser ready to parse another file, reading it with its own lexical analyser
+     * reset to read the file, or with a new one if it was reading from some other source.
+     *
+     * @param filename The file to parse
+     * @param mapped   True to read the file through the memory-mapped lexer backend
+     * @throws IOException if the file cannot be read
+     */
+    public void reset(String filename, boolean mapped) throws IOException {
+        LexicalAnalyser reader = (lex instanceof LexicalAnalyser) ? (LexicalAnalyser) lex : new LexicalAnalyser();
+        reader.reset(filename, mapped);
+        reset(reader, filename);
+    }
+
+    /**
+     * Makes this analyser ready to parse another file.
+     *
+     * @param lex      The lexical analyser, or other source of tokens, to read tokens from
+     * @param filename The name of the file being parsed, for error messages
+     */
+    public void reset(TokenSource lex, String filename) {
+        reset(lex);
+        this.filename = filename;
+    }
+
+    /**
+     * Runs the table from the start symbol until it has been parsed.
+     *
+     * @throws IOException
+     * @throws CompilationException
+     */
+    @Override
+    public void _statementPart_() throws IOException, CompilationException {
+        int[] stack = this.stack;
+        int top = 0;
+        stack[top++] = TERMINALS;
+        while (top > 0) {
+            int symbol = stack[--top];
+            if (symbol < TERMINALS) {
+                acceptTerminal(symbol);
+            } else if (symbol < FINISH) {
+                int n = symbol - TERMINALS;
+                // Commenced before the lookup, so that an error is traced inside the nonterminal
+                if (TRACED[n])
+                    myGenerate.commenceNonterminal(NAMES[n]);
+                int p = TABLE[n * TERMINALS + nextToken.symbol];
+                if (p < 0)
+                    myGenerate.reportError(currentToken(),
+                            new CompilationException(EXPECTED[n], nextToken.symbol, nextToken.lineNumber, this.filename, null));
+                int[] push = PUSH[p];
+                if (top + push.length > stack.length)
+                    this.stack = stack = Arrays.copyOf(stack, stack.length * 2 + push.length);
+                for (int s : push)
+                    stack[top++] = s;
+            } else {
+                myGenerate.finishNonterminal(NAMES[symbol - FINISH]);
+            }
+        }
+    }
+
+    /**
+     * @param symbol
+     * @throws IOException
+     * @throws CompilationException
+     */
+    @Override
+    public void acceptTerminal(int symbol) throws IOException, CompilationException {
+        if (symbol == nextToken.symbol) {
+            long start = (profiler == null) ? 0 : System.nanoTime();
+            if (tokens == null)
+                myGenerate.insertTerminal(nextToken);
+            else
+                myGenerate.insertTerminal(tokens, tokenIndex);
+            advance();
+            if (profiler != null)
+                profiler.terminal(symbol, System.nanoTime() - start);
+            return;
+        }
+
+        myGenerate.reportError(currentToken(), new CompilationException(symbol, nextToken.symbol, nextToken.lineNumber, this.filename));
+    }
+
+}
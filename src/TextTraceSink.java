@@ -0,0 +1,54 @@
+/**
+ * A TraceSink that writes events as the rggTOKEN/rggBEGIN/rggEND text trace. A line is built
+ * up with the append methods and completed with endLine(), so no String is needed per event.
+ */
+public abstract class TextTraceSink extends TraceSink {
+
+    public abstract TextTraceSink append(String s);
+
+    public abstract TextTraceSink append(char[] c, int start, int length);
+
+    public abstract TextTraceSink append(int i);
+
+    /**
+     * Completes the current line, as println would.
+     */
+    public abstract void endLine();
+
+    @Override
+    public void terminal(int symbol, String text, int line) {
+        append("rggTOKEN ").append(Token.getName(symbol));
+        if (showsText(symbol))
+            append(" '").append(text).append("'");
+        append(" on line ").append(line).endLine();
+    }
+
+    @Override
+    public void terminal(int symbol, char[] text, int start, int length, int line) {
+        append("rggTOKEN ").append(Token.getName(symbol));
+        if (showsText(symbol))
+            append(" '").append(text, start, length).append("'");
+        append(" on line ").append(line).endLine();
+    }
+
+    @Override
+    public void commenceNonterminal(String name) {
+        append("rggBEGIN ").append(name).endLine();
+    }
+
+    @Override
+    public void finishNonterminal(String name) {
+        append("rggEND ").append(name).endLine();
+    }
+
+    @Override
+    public void success() {
+        append("rggSUCCESS").endLine();
+    }
+
+    @Override
+    public void message(String text) {
+        append(text).endLine();
+    }
+
+}
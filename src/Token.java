@@ -65,6 +65,8 @@ public class Token
 	public String text ;
 	/** The line number of the original text in the source file. */
 	public int lineNumber ;
+	/** The id of an identifier's name in the IdentifierTable of the lexer that read it, or 0. */
+	public int id ;
 
 	/** Constructs a new token with a given token type and line number.
 
@@ -106,6 +108,30 @@ public class Token
 			return names[i - 1] ;
 	} // end of method getName
 
+	/** Returns whether tokens of a symbol type carry their own text from the source.
+
+	  @param i The value of a symbol, typically as a class constant from Token.
+	  @return true for identifiers, constants and errors.
+	 */
+	public static boolean hasText(int i)
+	{
+		return (i == identifier) || (i == numberConstant) ||
+				(i == stringConstant) || (i == errorSymbol) ;
+	} // end of method hasText
+
+	/** Returns the fixed source text of a symbol type that does not carry its own text.
+
+	  @param i The value of a symbol, typically as a class constant from Token.
+	  @return The text of this symbol, empty for EOF.
+	 */
+	public static String getText(int i)
+	{
+		if (i == eofSymbol)
+			return "" ;
+		else
+			return getName(i) ;
+	} // end of method getText
+
 	/** @see Object.toString */
 	public String toString()
 	{
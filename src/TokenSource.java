@@ -0,0 +1,24 @@
+import java.io.IOException;
+
+/**
+ * Where a syntax analyser reads its tokens from: a LexicalAnalyser scanning a source, or anything
+ * else that hands on tokens lexed some other way, such as on another thread. Once the input is
+ * used up, EOF is given again and again.
+ */
+public interface TokenSource {
+
+    /**
+     * @return The next token of the input
+     * @throws IOException if the input cannot be read
+     */
+    Token getNextToken() throws IOException;
+
+    /**
+     * Adds the next token of the input to the end of a token stream, without making a Token.
+     *
+     * @param tokens The token stream to add to
+     * @throws IOException if the input cannot be read
+     */
+    void getNextToken(TokenStream tokens) throws IOException;
+
+}
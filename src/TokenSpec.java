@@ -0,0 +1,327 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The tokens of a language read from a text description, with the classes of characters and the
+ * DFA that recognises them generated from it.
+ * <p>
+ * The description is a list of states, the first being the one each token starts in. A state is
+ * a line giving its name and the token it gives when the next character has no transition, a
+ * token name from Token such as IDENTIFIER. Each indented line after it is a transition: a class
+ * of characters, the state to go to and any actions taken on the character. Lines starting with
+ * '#' are comments.
+ * <p>
+ * A class is a single character in quotes, such as '"', or one of blank (space and tab), newline,
+ * letter, digit, nul (the NUL character), eof (the end of the input, which no character is in) or
+ * any, which is every class the state has no other transition on apart from nul and eof. An
+ * action is one of:
+ * <ul>
+ * <li>text: the character is added to the text of the token</li>
+ * <li>line: the line number goes up by one</li>
+ * <li>blanks: the spaces and tabs after the character are skipped in bulk</li>
+ * <li>skip-line: the rest of the line after the character is skipped in bulk</li>
+ * <li>copy-string: the rest of a string constant on the line is added to the text in bulk</li>
+ * </ul>
+ * Every symbol of Token with fixed text that is not a word, such as ":=", is added to the
+ * description: the first state goes on its first character to a state named by that character
+ * in quotes, and so on, each of these states giving the symbol it spells. The description can
+ * add transitions to these states as to any other.
+ * <p>
+ * Each ASCII character has a class, in a table indexed by the character. Any other character is
+ * a letter or a digit if Character says so, and otherwise in none of the classes, just as an
+ * ASCII character in no class is. The transitions are a single table of ints indexed by state
+ * and class, each holding the next state shifted left by STATE_SHIFT and the actions as bits, or
+ * -1 for none. A transition that only keeps the text of its character and stays in the same
+ * state is also marked LOOP, so that a lexer can take a run of such characters at once.
+ */
+public class TokenSpec {
+
+    /* The bits of the actions of a transition */
+    public static final int TEXT = 1;
+    public static final int LINE = 2;
+    public static final int BLANKS = 4;
+    public static final int SKIP_LINE = 8;
+    public static final int COPY_STRING = 16;
+    /* Marks a transition that keeps the text of its character and stays in the same state */
+    public static final int LOOP = 32;
+    public static final int STATE_SHIFT = 8;
+
+    private static final String[] ACTIONS = {"text", "line", "blanks", "skip-line", "copy-string"};
+    private static final String[] NAMED_CLASSES = {"other", "eof", "blank", "newline", "letter", "digit", "nul"};
+    private static final int OTHER = 0;
+    /** The class a lexer looks up at the end of the input, which no character is in. */
+    public static final int EOF = 1;
+    private static final int BLANK = 2;
+    private static final int NEWLINE = 3;
+    private static final int LETTER = 4;
+    private static final int DIGIT = 5;
+    private static final int NUL = 6;
+
+    private final List<String> states = new ArrayList<>();
+    private final HashMap<String, Integer> stateIds = new HashMap<>();
+    private final List<Integer> accepts = new ArrayList<>();
+    /* The transitions of each state by class, as written, before any is filled in */
+    private final List<HashMap<Integer, Integer>> written = new ArrayList<>();
+    private final List<Integer> wildcards = new ArrayList<>();
+    /* The characters with classes of their own, by class less the named ones */
+    private final StringBuilder quoted = new StringBuilder();
+
+    private final byte[] classes = new byte[128];
+    private int[] transitions;
+
+    /**
+     * @param description The states and transitions
+     * @throws IllegalArgumentException if the description cannot be read, goes to a state it
+     *                                  does not describe, or gives a state two transitions on
+     *                                  the same class
+     */
+    public TokenSpec(String description) {
+        int state = -1;
+        List<String> described = new ArrayList<>();
+        for (String line : description.split("\n")) {
+            if (line.trim().isEmpty() || line.trim().startsWith("#"))
+                continue;
+            String[] words = line.trim().split("\\s+");
+            if (!Character.isWhitespace(line.charAt(0))) {
+                state = state(words[0]);
+                described.add(words[0]);
+                if (words.length > 1)
+                    accepts.set(state, terminal(words[1]));
+                continue;
+            }
+            if (state < 0 || words.length < 2)
+                throw new IllegalArgumentException("transition outside a state: " + line.trim());
+            int actions = 0;
+            for (int i = 2; i < words.length; i++)
+                actions |= action(words[i]);
+            int entry = (state(words[1]) << STATE_SHIFT) | actions;
+            if (words[0].equals("any")) {
+                wildcards.set(state, entry);
+                continue;
+            }
+            add(state, characterClass(words[0]), entry, line.trim());
+        }
+        for (String name : states)
+            if (!described.contains(name) && !name.startsWith("'"))
+                throw new IllegalArgumentException("no state " + name);
+
+        addSymbols();
+        buildClasses();
+        buildTransitions();
+    }
+
+    /**
+     * @return The id of a state, given its name
+     */
+    private int state(String name) {
+        Integer id = stateIds.get(name);
+        if (id == null) {
+            id = states.size();
+            states.add(name);
+            stateIds.put(name, id);
+            accepts.add(Token.errorSymbol);
+            written.add(new HashMap<>());
+            wildcards.add(-1);
+        }
+        return id;
+    }
+
+    private static int terminal(String name) {
+        for (int t = 1; t < Grammar.terminalCount(); t++)
+            if (Token.getName(t).equals(name))
+                return t;
+        throw new IllegalArgumentException("no token named " + name);
+    }
+
+    private static int action(String name) {
+        for (int i = 0; i < ACTIONS.length; i++)
+            if (ACTIONS[i].equals(name))
+                return 1 << i;
+        throw new IllegalArgumentException("no action " + name);
+    }
+
+    private int characterClass(String written) {
+        for (int i = 0; i < NAMED_CLASSES.length; i++)
+            if (NAMED_CLASSES[i].equals(written) && i != OTHER)
+                return i;
+        if (written.length() != 3 || written.charAt(0) != '\'' || written.charAt(2) != '\'')
+            throw new IllegalArgumentException("no class " + written);
+        return characterClass(written.charAt(1));
+    }
+
+    /**
+     * @return The class of a character of its own, made the first time it is seen
+     */
+    private int characterClass(char c) {
+        if (c >= 128)
+            throw new IllegalArgumentException("only ASCII characters can have classes of their own: " + c);
+        int i = quoted.indexOf(String.valueOf(c));
+        if (i < 0) {
+            i = quoted.length();
+            quoted.append(c);
+        }
+        return NAMED_CLASSES.length + i;
+    }
+
+    private void add(int state, int characterClass, int entry, String what) {
+        if (written.get(state).put(characterClass, entry) != null)
+            throw new IllegalArgumentException("two transitions on the same class in " + states.get(state) + ": " + what);
+    }
+
+    /**
+     * Adds a state for every prefix of the symbols of Token with fixed text, other than the
+     * reserved words.
+     */
+    private void addSymbols() {
+        for (int t = 1; t < Grammar.terminalCount(); t++) {
+            String text = Token.getText(t);
+            if (Token.hasText(t) || text.isEmpty() || Character.isLetter(text.charAt(0)))
+                continue;
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                String prefix = "'" + text.substring(0, i + 1) + "'";
+                int next = state(prefix);
+                Integer existing = written.get(state).get(characterClass(text.charAt(i)));
+                if (existing == null)
+                    add(state, characterClass(text.charAt(i)), next << STATE_SHIFT, prefix);
+                else if (existing >>> STATE_SHIFT != next)
+                    throw new IllegalArgumentException("the symbol " + text + " clashes with a transition of " + states.get(state));
+                state = next;
+            }
+            accepts.set(state, t);
+        }
+    }
+
+    private void buildClasses() {
+        for (char c = 0; c < 128; c++) {
+            int i = quoted.indexOf(String.valueOf(c));
+            if (i >= 0)
+                classes[c] = (byte) (NAMED_CLASSES.length + i);
+            else if (c == '\000')
+                classes[c] = NUL;
+            else if (c == ' ' || c == '\t')
+                classes[c] = BLANK;
+            else if (c == '\n')
+                classes[c] = NEWLINE;
+            else
+                classes[c] = (byte) nonAsciiClass(c);
+        }
+    }
+
+    private void buildTransitions() {
+        int n = classCount();
+        transitions = new int[states.size() * n];
+        Arrays.fill(transitions, -1);
+        for (int s = 0; s < states.size(); s++) {
+            for (int k = 0; k < n; k++) {
+                Integer entry = written.get(s).get(k);
+                if (entry != null)
+                    transitions[s * n + k] = entry;
+                else if (k != EOF && k != NUL)
+                    transitions[s * n + k] = wildcards.get(s);
+                int t = transitions[s * n + k];
+                if (t >= 0 && t >>> STATE_SHIFT == s && (t & (LOOP - 1)) == TEXT)
+                    transitions[s * n + k] |= LOOP;
+            }
+        }
+    }
+
+    /**
+     * Classes a character outside ASCII, or an ASCII character with no class of its own.
+     *
+     * @param c The character
+     * @return The class of letters, the class of digits, or the class of characters in no other
+     */
+    public static int nonAsciiClass(char c) {
+        if (Character.isLetter(c))
+            return LETTER;
+        if (Character.isDigit(c))
+            return DIGIT;
+        return OTHER;
+    }
+
+    /**
+     * @return The class of each ASCII character, indexed by the character
+     */
+    public byte[] classes() {
+        return classes.clone();
+    }
+
+    /**
+     * @return The number of classes, and so the width of the table of transitions
+     */
+    public int classCount() {
+        return NAMED_CLASSES.length + quoted.length();
+    }
+
+    public int stateCount() {
+        return states.size();
+    }
+
+    public String stateName(int state) {
+        return states.get(state);
+    }
+
+    /**
+     * @return The transitions, indexed by state times classCount() plus class
+     */
+    public int[] transitions() {
+        return transitions.clone();
+    }
+
+    /**
+     * @return The token each state gives when the next character has no transition
+     */
+    public int[] accepts() {
+        int[] result = new int[accepts.size()];
+        for (int s = 0; s < result.length; s++)
+            result[s] = accepts.get(s);
+        return result;
+    }
+
+    private String className(int k) {
+        return (k < NAMED_CLASSES.length) ? NAMED_CLASSES[k] : "'" + quoted.charAt(k - NAMED_CLASSES.length) + "'";
+    }
+
+    /**
+     * Usage: TokenSpec [description file]
+     * <p>
+     * Prints the classes and the transitions of a description, by default the one LexicalAnalyser
+     * reads with.
+     */
+    public static void main(String[] args) throws IOException {
+        TokenSpec spec = (args.length > 0)
+                ? new TokenSpec(new String(Files.readAllBytes(Paths.get(args[0]))))
+                : LexicalAnalyser.SPEC;
+
+        for (int k = 0; k < spec.classCount(); k++) {
+            StringBuilder members = new StringBuilder();
+            for (char c = 0; c < 128; c++)
+                if (spec.classes[c] == k && c > ' ' && c < 127)
+                    members.append(c);
+            System.out.println("class " + k + " " + spec.className(k) + (members.length() > 0 ? ": " + members : ""));
+        }
+        System.out.println();
+        int n = spec.classCount();
+        for (int s = 0; s < spec.stateCount(); s++) {
+            System.out.println(s + " " + spec.stateName(s) + " gives " + Token.getName(spec.accepts.get(s)));
+            for (int k = 0; k < n; k++) {
+                int entry = spec.transitions[s * n + k];
+                if (entry < 0)
+                    continue;
+                StringBuilder row = new StringBuilder("    ").append(spec.className(k)).append(" -> ")
+                        .append(spec.stateName(entry >>> STATE_SHIFT));
+                for (int a = 0; a < ACTIONS.length; a++)
+                    if ((entry & (1 << a)) != 0)
+                        row.append(' ').append(ACTIONS[a]);
+                System.out.println(row);
+            }
+        }
+    }
+
+}
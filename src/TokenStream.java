@@ -0,0 +1,406 @@
+import java.util.Arrays;
+
+/**
+ * A compact stream of tokens held as parallel primitive arrays rather than one Token object per token.
+ * The text of identifiers, constants and errors is copied into a single shared character buffer,
+ * and is only turned into a String when asked for.
+ * <p>
+ * The spare capacity of the arrays is a gap that sits at the end while tokens are added, and is
+ * moved to wherever tokens are replaced, so that a run of nearby edits only moves the tokens between
+ * them. Tokens after the gap hold their line and character positions relative to a shift that
+ * each replacement adjusts, rather than every one of them being updated.
+ */
+public class TokenStream {
+
+    private int[] symbol;
+    private int[] start;
+    private int[] length;
+    private int[] line;
+    private int[] offset;
+    private int[] end;
+    private int[] id;
+    private int size;
+
+    /* Tokens from gapStart onwards are stored at the end of the arrays, with these added to their positions */
+    private int gapStart;
+    private int lineShift;
+    private int offsetShift;
+
+    /* The characters of every token with its own text, end to end, and how many are no longer used */
+    private char[] text;
+    private int textSize;
+    private int textGarbage;
+
+    public TokenStream() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity The number of tokens to make room for initially
+     */
+    public TokenStream(int capacity) {
+        symbol = new int[capacity];
+        start = new int[capacity];
+        length = new int[capacity];
+        line = new int[capacity];
+        offset = new int[capacity];
+        end = new int[capacity];
+        id = new int[capacity];
+        text = new char[capacity * 4];
+    }
+
+    /**
+     * Empties the stream, keeping its arrays for reuse.
+     */
+    public void clear() {
+        size = 0;
+        gapStart = 0;
+        lineShift = 0;
+        offsetShift = 0;
+        textSize = 0;
+        textGarbage = 0;
+    }
+
+    /**
+     * Adds a token to the end of the stream.
+     *
+     * @param s The type of symbol, a class constant from Token
+     * @param t The text of the token, or null for a symbol with fixed text spelt as usual
+     * @param l The line number of the token
+     * @param from The character position in the source of the start of the token
+     * @param to   The character position in the source just after the token
+     */
+    public void add(int s, StringBuffer t, int l, int from, int to) {
+        add(s, t, l, from, to, 0);
+    }
+
+    /**
+     * Adds a token to the end of the stream, with the id of its name if it is an identifier.
+     *
+     * @param s The type of symbol, a class constant from Token
+     * @param t The text of the token, or null for a symbol with fixed text spelt as usual
+     * @param l The line number of the token
+     * @param from The character position in the source of the start of the token
+     * @param to   The character position in the source just after the token
+     * @param name The id of the name of an identifier, or 0
+     */
+    public void add(int s, StringBuffer t, int l, int from, int to, int name) {
+        int n = (t == null) ? 0 : t.length();
+        append(s, n, l, from, to, name);
+        if (n > 0)
+            t.getChars(0, n, text, textSize - n);
+    }
+
+    /**
+     * Adds a token whose text is held at the start of a character buffer to the end of the stream.
+     *
+     * @param s The type of symbol, a class constant from Token
+     * @param t The buffer holding the text of the token
+     * @param n The length of the text, 0 for a symbol with fixed text spelt as usual
+     * @param l The line number of the token
+     * @param from The character position in the source of the start of the token
+     * @param to   The character position in the source just after the token
+     * @param name The id of the name of an identifier, or 0
+     */
+    public void add(int s, char[] t, int n, int l, int from, int to, int name) {
+        append(s, n, l, from, to, name);
+        if (n > 0)
+            System.arraycopy(t, 0, text, textSize - n, n);
+    }
+
+    /**
+     * Adds a Token object to the end of the stream. Its character positions in the source are
+     * not known, and are given as -1. The text of a symbol is only kept if it is spelt other than
+     * as usual, as a reserved word can be.
+     *
+     * @param token The token to add
+     */
+    public void add(Token token) {
+        boolean spelt = (token.text != null) && !token.text.equals(Token.getText(token.symbol));
+        int n = (Token.hasText(token.symbol) || spelt) ? token.text.length() : 0;
+        append(token.symbol, n, token.lineNumber, -1, -1, token.id);
+        if (n > 0)
+            token.text.getChars(0, n, text, textSize - n);
+    }
+
+    /**
+     * Adds a copy of a token of another stream to the end of this one.
+     *
+     * @param from The stream to copy from
+     * @param i    The index of the token in that stream
+     */
+    public void add(TokenStream from, int i) {
+        int k = from.slot(i);
+        int n = from.length[k];
+        append(from.symbol[k], n, from.line(i), from.offset(i), from.end(i), from.id[k]);
+        if (n > 0)
+            System.arraycopy(from.text, from.start[k], text, textSize - n, n);
+    }
+
+    /**
+     * Adds a token to the end of the stream, making room for n characters of text for the caller
+     * to copy in just before textSize.
+     */
+    private void append(int s, int n, int l, int from, int to, int name) {
+        if (gapStart != size)
+            moveGap(size);
+        ensureCapacity(size + 1);
+        ensureText(n);
+
+        symbol[size] = s;
+        start[size] = textSize;
+        length[size] = n;
+        line[size] = l;
+        offset[size] = from;
+        end[size] = to;
+        id[size] = name;
+        textSize += n;
+        size++;
+        gapStart++;
+    }
+
+    /**
+     * @return The index in the arrays of a token
+     */
+    private int slot(int i) {
+        return (i < gapStart) ? i : i + symbol.length - size;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > symbol.length) {
+            int capacity = Math.max(Math.max(symbol.length * 2, n), 16);
+            int tail = size - gapStart;
+            symbol = grow(symbol, capacity, tail);
+            start = grow(start, capacity, tail);
+            length = grow(length, capacity, tail);
+            line = grow(line, capacity, tail);
+            offset = grow(offset, capacity, tail);
+            end = grow(end, capacity, tail);
+            id = grow(id, capacity, tail);
+        }
+    }
+
+    /**
+     * Copies an array into a larger one, keeping the tokens after the gap at the end.
+     */
+    private static int[] grow(int[] array, int capacity, int tail) {
+        int[] grown = Arrays.copyOf(array, capacity);
+        System.arraycopy(array, array.length - tail, grown, capacity - tail, tail);
+        return grown;
+    }
+
+    private void ensureText(int n) {
+        if (textSize + n > text.length)
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textSize + n));
+    }
+
+    /**
+     * Moves the gap to just before a token, shifting the positions of the tokens that cross it.
+     *
+     * @param i The index of the token to put the gap before
+     */
+    private void moveGap(int i) {
+        int gap = symbol.length - size;
+        if (i < gapStart) {
+            int n = gapStart - i;
+            move(i, i + gap, n);
+            for (int k = i + gap; k < i + gap + n; k++) {
+                line[k] -= lineShift;
+                offset[k] -= offsetShift;
+                end[k] -= offsetShift;
+            }
+        } else if (i > gapStart) {
+            int n = i - gapStart;
+            move(gapStart + gap, gapStart, n);
+            for (int k = gapStart; k < i; k++) {
+                line[k] += lineShift;
+                offset[k] += offsetShift;
+                end[k] += offsetShift;
+            }
+        }
+        gapStart = i;
+        if (gapStart == size) {
+            lineShift = 0;
+            offsetShift = 0;
+        }
+    }
+
+    private void move(int from, int to, int n) {
+        System.arraycopy(symbol, from, symbol, to, n);
+        System.arraycopy(start, from, start, to, n);
+        System.arraycopy(length, from, length, to, n);
+        System.arraycopy(line, from, line, to, n);
+        System.arraycopy(offset, from, offset, to, n);
+        System.arraycopy(end, from, end, to, n);
+        System.arraycopy(id, from, id, to, n);
+    }
+
+    /**
+     * Replaces a run of tokens with every token of another stream, moving the tokens after
+     * the run by a number of characters and lines in the source.
+     *
+     * @param from        The index of the first token to replace
+     * @param to          The index just after the last token to replace
+     * @param replacement The tokens to put in their place
+     * @param offsetDelta The number of characters the tokens after the run have moved by
+     * @param lineDelta   The number of lines the tokens after the run have moved by
+     */
+    public void replace(int from, int to, TokenStream replacement, int offsetDelta, int lineDelta) {
+        moveGap(to);
+        for (int i = from; i < to; i++)
+            textGarbage += length[i];
+        size -= to - from;
+        gapStart = from;
+        lineShift += lineDelta;
+        offsetShift += offsetDelta;
+
+        int k = replacement.size;
+        ensureCapacity(size + k);
+        ensureText(replacement.textSize);
+        for (int i = 0; i < k; i++) {
+            int r = replacement.slot(i);
+            int n = replacement.length[r];
+            System.arraycopy(replacement.text, replacement.start[r], text, textSize, n);
+            symbol[from + i] = replacement.symbol[r];
+            start[from + i] = textSize;
+            length[from + i] = n;
+            line[from + i] = replacement.line(i);
+            offset[from + i] = replacement.offset(i);
+            end[from + i] = replacement.end(i);
+            id[from + i] = replacement.id[r];
+            textSize += n;
+        }
+        size += k;
+        gapStart += k;
+
+        if (textGarbage > textSize / 2)
+            compactText();
+    }
+
+    /**
+     * Copies the text still in use into a fresh buffer.
+     */
+    private void compactText() {
+        char[] compacted = new char[Math.max(textSize - textGarbage, 16) * 2];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int k = slot(i);
+            System.arraycopy(text, start[k], compacted, n, length[k]);
+            start[k] = n;
+            n += length[k];
+        }
+        text = compacted;
+        textSize = n;
+        textGarbage = 0;
+    }
+
+    /**
+     * Drops every token from an index onwards.
+     *
+     * @param n The number of tokens to keep
+     */
+    public void truncate(int n) {
+        if (n >= size)
+            return;
+        if (n < gapStart)
+            gapStart = n;
+        else
+            moveGap(n);
+        size = n;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int symbol(int i) {
+        return symbol[slot(i)];
+    }
+
+    public int line(int i) {
+        return (i < gapStart) ? line[i] : line[slot(i)] + lineShift;
+    }
+
+    /**
+     * @return The character position in the source of the start of a token
+     */
+    public int offset(int i) {
+        return (i < gapStart) ? offset[i] : offset[slot(i)] + offsetShift;
+    }
+
+    /**
+     * @return The character position in the source just after a token
+     */
+    public int end(int i) {
+        return (i < gapStart) ? end[i] : end[slot(i)] + offsetShift;
+    }
+
+    /**
+     * @return The id of the name of an identifier in the IdentifierTable of the lexer that read
+     * it, or 0
+     */
+    public int id(int i) {
+        return id[slot(i)];
+    }
+
+    /**
+     * @return The offset of the text of a token in the buffer returned by text()
+     */
+    public int start(int i) {
+        return start[slot(i)];
+    }
+
+    /**
+     * @return The length of the text of a token in the buffer returned by text()
+     */
+    public int length(int i) {
+        return length[slot(i)];
+    }
+
+    /**
+     * @return The shared buffer holding the text of every token
+     */
+    public char[] text() {
+        return text;
+    }
+
+    /**
+     * Materialises the text of a token.
+     *
+     * @param i The index of the token
+     * @return The text, exactly as Token.text would hold it
+     */
+    public String getText(int i) {
+        int k = slot(i);
+        if (Token.hasText(symbol[k]) || (length[k] > 0))
+            return new String(text, start[k], length[k]);
+        return Token.getText(symbol[k]);
+    }
+
+    /**
+     * Materialises a token as a Token object.
+     *
+     * @param i The index of the token
+     * @return A new Token
+     */
+    public Token getToken(int i) {
+        Token token = new Token(symbol(i), getText(i), line(i));
+        token.id = id(i);
+        return token;
+    }
+
+    /**
+     * Points a reusable cursor token at a token in the stream. The cursor's text is
+     * left null; use getText() or appendText() when it is needed.
+     *
+     * @param i      The index of the token
+     * @param cursor The token to overwrite
+     */
+    public void load(int i, Token cursor) {
+        cursor.symbol = symbol(i);
+        cursor.text = null;
+        cursor.lineNumber = line(i);
+        cursor.id = id(i);
+    }
+
+}
@@ -0,0 +1,63 @@
+import java.io.IOException;
+
+/**
+ * Receives the events of a parse from AbstractGenerate: terminals, the start and end of
+ * nonterminals, and whole lines of other output such as errors.
+ */
+public abstract class TraceSink {
+
+    /**
+     * A terminal whose text is held in a String.
+     *
+     * @param symbol The type of symbol, a class constant from Token
+     * @param text   The text of the token
+     * @param line   The line number of the token
+     */
+    public abstract void terminal(int symbol, String text, int line);
+
+    /**
+     * A terminal whose text is held in part of a character buffer.
+     *
+     * @param symbol The type of symbol, a class constant from Token
+     * @param text   The buffer holding the text of the token
+     * @param start  The offset of the text in the buffer
+     * @param length The length of the text
+     * @param line   The line number of the token
+     */
+    public abstract void terminal(int symbol, char[] text, int start, int length, int line);
+
+    public abstract void commenceNonterminal(String name);
+
+    public abstract void finishNonterminal(String name);
+
+    public abstract void success();
+
+    /**
+     * A line of any other output, such as an error message.
+     */
+    public abstract void message(String text);
+
+    /**
+     * Writes out anything still held by the sink.
+     *
+     * @throws IOException if the output cannot be written
+     */
+    public abstract void flush() throws IOException;
+
+    /**
+     * Flushes the sink and releases anything it holds open.
+     *
+     * @throws IOException if the output cannot be written
+     */
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * @return true if the text of tokens of a symbol type appears in the trace
+     */
+    static boolean showsText(int symbol) {
+        return (symbol == Token.identifier) || (symbol == Token.numberConstant) || (symbol == Token.stringConstant);
+    }
+
+}
@@ -0,0 +1,41 @@
+/**
+ * A code generator for finding out whether a program is valid, and nothing more: terminals and
+ * nonterminals are dropped as soon as they are handed over, so a parse pays for no trace lines.
+ * <p>
+ * Success and syntax errors are reported just as by Generate, the error message to the sink and
+ * then thrown, so the results of a parse and the lines of the trace that are not events of the
+ * grammar are the same as in a full parse.
+ */
+public class ValidatingGenerate extends Generate {
+
+    /**
+     * Validates without writing anything, other than errors to the stream the parse reports them to.
+     */
+    public ValidatingGenerate() {
+        this(new NullSink());
+    }
+
+    /**
+     * @param sink The sink success and error messages are written to
+     */
+    public ValidatingGenerate(TraceSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void insertTerminal(Token token) {
+    }
+
+    @Override
+    public void insertTerminal(TokenStream tokens, int i) {
+    }
+
+    @Override
+    public void commenceNonterminal(String name) {
+    }
+
+    @Override
+    public void finishNonterminal(String name) {
+    }
+
+}
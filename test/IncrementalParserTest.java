@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that an edit brought up to date by IncrementalParser gives the same result as parsing
+ * the edited text in full. The edits delete and insert statement separators, which move where a
+ * statement list ends without changing any statement around them.
+ * <p>
+ * Usage: java -cp out IncrementalParserTest, after javac -d out src/*.java test/*.java. Exits
+ * with status 1 if any check fails.
+ */
+public class IncrementalParserTest {
+
+    private static final int EDITS = 200;
+
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        ProgramGenerator generator = new ProgramGenerator(42);
+        StringWriter out = new StringWriter();
+        generator.generate(out, 16 * 1024);
+        String text = out.toString();
+
+        IncrementalParser parser = new IncrementalParser("test", text);
+        if (!parser.isValid()) {
+            System.out.println("FAIL the generated program does not parse");
+            System.exit(1);
+        }
+
+        List<Integer> semicolons = new ArrayList<>();
+        List<Integer> newlines = new ArrayList<>();
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == ';')
+                semicolons.add(i);
+            else if (text.charAt(i) == '\n')
+                newlines.add(i);
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < EDITS; i++) {
+            // Delete a separator, then put it back
+            int at = semicolons.get(random.nextInt(semicolons.size()));
+            text = edit(parser, text, at, at + 1, " ");
+            text = edit(parser, text, at, at + 1, ";");
+
+            // Insert a separator at a line end, then take it out again
+            at = newlines.get(random.nextInt(newlines.size()));
+            text = edit(parser, text, at, at, ";");
+            text = edit(parser, text, at, at + 1, "");
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    /**
+     * Makes an edit incrementally and compares the result with a full parse of the new text.
+     *
+     * @return The new text
+     */
+    private static String edit(IncrementalParser parser, String text, int from, int to, String with) throws IOException {
+        String edited = text.substring(0, from) + with + text.substring(to);
+        parser.edit(from, to, with);
+        IncrementalParser full = new IncrementalParser("test", edited);
+        if (parser.isValid() != full.isValid() || !parser.getErrors().equals(full.getErrors())) {
+            failures++;
+            System.out.println("FAIL edit(" + from + ", " + to + ", \"" + with + "\")");
+            System.out.println("  expected valid=" + full.isValid() + " " + full.getErrors().trim());
+            System.out.println("  got      valid=" + parser.isValid() + " " + parser.getErrors().trim());
+        }
+        return edited;
+    }
+
+}
@@ -0,0 +1,167 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that every way of lexing a source gives the same tokens: LexicalAnalyser reading lines,
+ * reading a mapped file, reset onto a file, and StreamingLexer fed a byte at a time. The sources
+ * are the corners where bulk scanning can get ahead of the character by character rules.
+ * <p>
+ * Usage: java -cp out LexicalAnalyserTest, after javac -d out src/*.java test/*.java. Exits
+ * with status 1 if any check fails.
+ */
+public class LexicalAnalyserTest {
+
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        // A NUL in a string constant is part of it, however far into the string it is
+        check("x := \"\0cd\" y", "IDENTIFIER 'x' @0", ":= @0", "STRING '\0cd' @0", "IDENTIFIER 'y' @0", "EOF @1");
+        check("x := \"ab\0cd\" y", "IDENTIFIER 'x' @0", ":= @0", "STRING 'ab\0cd' @0", "IDENTIFIER 'y' @0", "EOF @1");
+        check("\"abcdefghijklmnop\0qrstuvwxyz\";", "STRING 'abcdefghijklmnop\0qrstuvwxyz' @0", "; @0", "EOF @1");
+        // Only the real end of the input closes a string left open
+        check("\"ab\0", "STRING 'ab\0\n' @0", "EOF @0");
+        // A NUL anywhere else ends the input
+        check("a\0b", "IDENTIFIER 'a' @0", "EOF @0");
+        // A NUL in a comment is skipped with the rest of the line
+        check("a -- b\0c\nd", "IDENTIFIER 'a' @0", "IDENTIFIER 'd' @1", "EOF @2");
+        // A line end in a string constant is kept as '\n', whatever it was in the source, and is
+        // not counted as a line
+        check("\"abc\r\ndef\"", "STRING 'abc\ndef' @0", "EOF @1");
+        check("begin\n  x := \"a\nb\" ; -- c\n\n  y\r\nend",
+                "begin @0", "IDENTIFIER 'x' @1", ":= @1", "STRING 'a\nb' @1", "; @1", "IDENTIFIER 'y' @3", "end @4", "EOF @5");
+        // A reserved word in any case keeps its spelling in the source
+        check("BEGIN x := \"End\" ; If y THEN End\nend",
+                "begin 'BEGIN' @0", "IDENTIFIER 'x' @0", ":= @0", "STRING 'End' @0", "; @0", "if 'If' @0",
+                "IDENTIFIER 'y' @0", "then 'THEN' @0", "end 'End' @0", "end @1", "EOF @2");
+
+        // Bytes outside ASCII are read in the platform's charset by every way of lexing
+        same(bytes("x := \"caf", 0xc3, 0xa9, "\" ; y"));
+        same(bytes("\"", 0xf0, 0x9f, 0x98, 0x80, "\" a", 0xe9, "b"));
+        same(bytes("a", 0xc3, "\r\nb ", 0xe2, 0x82, "\"c\" -- ", 0xff, "\nd ", 0xe2));
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    /**
+     * Lexes a source every way there is and compares the tokens with those expected.
+     *
+     * @param source   The text to lex
+     * @param expected The name of each token, followed by its text in quotes if it has any or is
+     *                 spelt other than as usual, and then its line number after an @
+     */
+    private static void check(String source, String... expected) throws IOException {
+        List<String> want = List.of(expected);
+        Path file = Files.createTempFile("lexer", ".txt");
+        try {
+            Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+            compare(source, "reader", lex(new LexicalAnalyser(new StringReader(source))), want);
+            compare(source, "tokens", tokens(new LexicalAnalyser(new StringReader(source))), want);
+            compare(source, "file", lex(new LexicalAnalyser(file.toString())), want);
+            compare(source, "mapped", lex(new LexicalAnalyser(file.toString(), true)), want);
+            LexicalAnalyser reset = new LexicalAnalyser(new StringReader("ignored"));
+            reset.reset(file.toString(), false);
+            compare(source, "reset", lex(reset), want);
+            compare(source, "streaming", stream(source), want);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Lexes bytes every way there is and compares the tokens with those a Reader in the
+     * platform's charset gives.
+     *
+     * @param source The bytes to lex
+     */
+    private static void same(byte[] source) throws IOException {
+        String shown = new String(source, StandardCharsets.ISO_8859_1);
+        List<String> want = lex(new LexicalAnalyser(new InputStreamReader(new ByteArrayInputStream(source))));
+        Path file = Files.createTempFile("lexer", ".txt");
+        try {
+            Files.write(file, source);
+            compare(shown, "file", lex(new LexicalAnalyser(file.toString())), want);
+            compare(shown, "mapped", lex(new LexicalAnalyser(file.toString(), true)), want);
+            LexicalAnalyser reset = new LexicalAnalyser(new StringReader("ignored"));
+            reset.reset(file.toString(), false);
+            compare(shown, "reset", lex(reset), want);
+            reset.reset(file.toString(), true);
+            compare(shown, "reset mapped", lex(reset), want);
+            compare(shown, "streaming", stream(source, Charset.defaultCharset()), want);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * @param parts Strings of ASCII text and ints of single bytes
+     * @return the bytes of the parts one after another
+     */
+    private static byte[] bytes(Object... parts) {
+        StringBuilder text = new StringBuilder();
+        for (Object part : parts)
+            text.append(part instanceof Integer ? (char) (int) (Integer) part : (String) part);
+        return text.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void compare(String source, String how, List<String> got, List<String> want) {
+        if (!got.equals(want)) {
+            failures++;
+            System.out.println("FAIL " + how + " " + source.replace("\0", "\\0").replace("\r", "\\r").replace("\n", "\\n"));
+            System.out.println("  expected " + want);
+            System.out.println("  got      " + got);
+        }
+    }
+
+    private static List<String> lex(LexicalAnalyser lex) throws IOException {
+        TokenStream tokens = new TokenStream();
+        do
+            lex.getNextToken(tokens);
+        while (tokens.symbol(tokens.size() - 1) != Token.eofSymbol);
+        return names(tokens);
+    }
+
+    private static List<String> tokens(LexicalAnalyser lex) throws IOException {
+        TokenStream tokens = new TokenStream();
+        do
+            tokens.add(lex.getNextToken());
+        while (tokens.symbol(tokens.size() - 1) != Token.eofSymbol);
+        return names(tokens);
+    }
+
+    private static List<String> stream(String source) {
+        return stream(source.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> stream(byte[] source, Charset charset) {
+        StreamingLexer lex = new StreamingLexer(charset);
+        TokenStream tokens = new TokenStream();
+        for (byte b : source)
+            lex.feed(ByteBuffer.wrap(new byte[]{b}), tokens);
+        lex.finish(tokens);
+        return names(tokens);
+    }
+
+    private static List<String> names(TokenStream tokens) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.getToken(i);
+            boolean shown = Token.hasText(token.symbol) || !token.text.equals(Token.getText(token.symbol));
+            names.add(Token.getName(token.symbol) + (shown ? " '" + token.text + "'" : "") + " @" + token.lineNumber);
+        }
+        return names;
+    }
+
+}